@@ -0,0 +1,269 @@
+package haiku;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * An optional word-transition model, used to choose each word based on the word before it.
+ *
+ * Transitions are read from a text file of the form (previous | next | count), and are stored in
+ * compressed sparse rows: the transitions out of word id w occupy positions offsets[w] to offsets[w+1]
+ * of the targets and cumulative weight arrays.  Within a row, transitions are ordered by part of speech
+ * and then syllable count, so the transitions that fit a sentence graph node form one contiguous run,
+ * from which a word is drawn by binary search over the cumulative weights.
+ */
+public class BigramModel
+{
+	//-- every word known to this model, by word id
+	private final String[] words;
+
+	//-- word ids, keyed by trimmed, lower-case word
+	private final Map<String, Integer> ids;
+
+	//-- compressed sparse rows: row w spans [offsets[w], offsets[w+1])
+	private final int[] offsets;
+	private final int[] targets;
+
+	//-- the (part of speech, syllable count) sort key of each transition's target word
+	private final int[] keys;
+
+	//-- running total of transition weights, restarting at each row
+	private final long[] cumulative;
+
+	//-- the largest syllable count distinguished in a sort key
+	private static final int MAX_SYLLABLES = 255;
+
+
+	private BigramModel(String[] words, Map<String, Integer> ids, int[] offsets, int[] targets,
+			int[] keys, long[] cumulative)
+	{
+		this.words = words;
+		this.ids = ids;
+		this.offsets = offsets;
+		this.targets = targets;
+		this.keys = keys;
+		this.cumulative = cumulative;
+	}
+
+
+	/**
+	 * Reads a bigram text file.  Each line holds two dictionary words and the number of times the
+	 * second was seen following the first, (previous | next | count) without parenthesis.
+	 * Lines naming words that are not in the given dictionary are skipped.
+	 *
+	 * @param filename the filename of a bigram text file
+	 * @param dictionary the dictionary whose words the model chooses between
+	 *
+	 * @throws FileNotFoundException if the given file cannot be located
+	 */
+	public static BigramModel load(String filename, Dictionary dictionary) throws IOException
+	{
+		// number every dictionary word, so that transitions can be stored by id
+		String[] words = dictionary.toArray();
+		Map<String, Integer> ids = new HashMap<String, Integer>(words.length * 2);
+		for (int i = 0; i < words.length; i++)
+			ids.put(words[i].trim().toLowerCase(), i);
+
+		// first pass: collect every transition that names two known words
+		int[] from = new int[1024];
+		int[] to = new int[1024];
+		int[] count = new int[1024];
+		int size = 0;
+
+		BufferedReader inFile = new BufferedReader(new FileReader(new File(filename)));
+		try {
+			String line;
+			while ((line = inFile.readLine()) != null)
+			{
+				String[] columns = line.split("\\|");
+				if (columns.length != 3)
+					continue;
+
+				Integer source = ids.get(columns[0].trim().toLowerCase());
+				Integer target = ids.get(columns[1].trim().toLowerCase());
+				int weight;
+				try {
+					weight = Integer.parseInt(columns[2].trim());
+				}
+				catch (NumberFormatException exception) {
+					continue;
+				}
+
+				if (source == null || target == null || weight <= 0)
+					continue;
+
+				if (size == from.length) {
+					from = Arrays.copyOf(from, size * 2);
+					to = Arrays.copyOf(to, size * 2);
+					count = Arrays.copyOf(count, size * 2);
+				}
+				from[size] = source;
+				to[size] = target;
+				count[size] = weight;
+				size++;
+			}
+		}
+		finally {
+			inFile.close();
+		}
+
+		// second pass: bucket the transitions into rows by source word
+		int[] offsets = new int[words.length + 1];
+		for (int i = 0; i < size; i++)
+			offsets[from[i] + 1]++;
+		for (int w = 0; w < words.length; w++)
+			offsets[w + 1] += offsets[w];
+
+		int[] next = Arrays.copyOf(offsets, words.length);
+		int[] order = new int[size];
+		for (int i = 0; i < size; i++)
+			order[next[from[i]]++] = i;
+
+		// sort each row by (part of speech, syllables), then lay out targets and running weights
+		int[] keyOf = new int[words.length];
+		Arrays.fill(keyOf, -1);
+
+		int[] targets = new int[size];
+		int[] keys = new int[size];
+		long[] cumulative = new long[size];
+		long[] packed = new long[size];
+
+		for (int w = 0; w < words.length; w++)
+		{
+			int start = offsets[w];
+			int end = offsets[w + 1];
+
+			for (int k = start; k < end; k++) {
+				int target = to[order[k]];
+				if (keyOf[target] < 0)
+					keyOf[target] = sortKey(dictionary.getPOS(words[target]), Dictionary.sylCount(words[target]));
+				packed[k] = ((long) keyOf[target] << 32) | order[k];
+			}
+			Arrays.sort(packed, start, end);
+
+			long total = 0;
+			for (int k = start; k < end; k++) {
+				int entry = (int) packed[k];
+				targets[k] = to[entry];
+				keys[k] = (int) (packed[k] >>> 32);
+				total += count[entry];
+				cumulative[k] = total;
+			}
+		}
+
+		return new BigramModel(words, ids, offsets, targets, keys, cumulative);
+	}
+
+
+	private static int sortKey(PartOfSpeech pos, int syllables) {
+		return (pos.ordinal() << 8) | Math.max(0, Math.min(syllables, MAX_SYLLABLES));
+	}
+
+
+	/**
+	 * Returns the number of words known to this model.
+	 */
+	public int size() {
+		return words.length;
+	}
+
+
+	/**
+	 * Returns the number of transitions stored in this model.
+	 */
+	public int transitionCount() {
+		return targets.length;
+	}
+
+
+	/**
+	 * Returns the number of times the second word was seen following the first, or 0 if either is unknown.
+	 */
+	public long count(String previous, String next)
+	{
+		if (previous == null || next == null)
+			return 0;
+
+		Integer from = ids.get(previous.trim().toLowerCase());
+		Integer to = ids.get(next.trim().toLowerCase());
+		if (from == null || to == null)
+			return 0;
+
+		for (int k = offsets[from]; k < offsets[from + 1]; k++)
+			if (targets[k] == to)
+				return cumulative[k] - ((k == offsets[from]) ? 0 : cumulative[k - 1]);
+
+		return 0;
+	}
+
+
+	/**
+	 * Picks a word to follow the given one, in proportion to how often it was seen there, from among the
+	 * words with the given part of speech and a syllable count between sMin and sMax (inclusive).
+	 *
+	 * @param previous the word before the one being chosen
+	 * @param pos the part of speech
+	 * @param sMin the smallest number of syllables usable
+	 * @param sMax the largest number of syllables usable
+	 * @param random the source of randomness to use
+	 * @return the chosen dictionary word, or null if no recorded transition fits
+	 */
+	public String next(String previous, PartOfSpeech pos, int sMin, int sMax, Random random)
+	{
+		if (previous == null || sMax < sMin)
+			return null;
+
+		Integer id = ids.get(previous.trim().toLowerCase());
+		if (id == null)
+			return null;
+
+		int rowStart = offsets[id];
+		int rowEnd = offsets[id + 1];
+
+		// the run of transitions whose target fits the part of speech and syllable range
+		int lo = firstKeyAtLeast(rowStart, rowEnd, sortKey(pos, sMin));
+		int hi = firstKeyAtLeast(lo, rowEnd, sortKey(pos, sMax) + 1);
+		if (lo >= hi)
+			return null;
+
+		long before = (lo == rowStart) ? 0 : cumulative[lo - 1];
+		long span = cumulative[hi - 1] - before;
+		long target = before + (long) (random.nextDouble() * span);
+
+		// the first transition whose running weight passes the target
+		while (lo < hi - 1)
+		{
+			int mid = (lo + hi - 1) >>> 1;
+			if (cumulative[mid] > target)
+				hi = mid + 1;
+			else
+				lo = mid + 1;
+		}
+
+		return words[targets[lo]];
+	}
+
+
+	/**
+	 * Binary search for the first transition in [start, end) whose sort key is at least the given key.
+	 */
+	private int firstKeyAtLeast(int start, int end, int key)
+	{
+		while (start < end)
+		{
+			int mid = (start + end) >>> 1;
+			if (keys[mid] < key)
+				start = mid + 1;
+			else
+				end = mid;
+		}
+		return start;
+	}
+}
@@ -0,0 +1,527 @@
+package haiku;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Builds a dictionary file, with word frequencies, by streaming plain-text corpora through a parallel tokenizer.
+ *
+ * Words are tagged using an existing dictionary as a lexicon; words the lexicon does not know are skipped.
+ * The output is in the (word | PARTOFSPEECH | frequency) format read by Dictionary.load, and optionally
+ * a (previous | next | count) bigram file read by BigramModel.load.
+ *
+ * Each worker thread counts into its own shard: word counts in a primitive array indexed by lexicon id, and
+ * bigram counts in a primitive-keyed hash map.  When a shard's bigram map reaches its share of the memory budget,
+ * it is sorted and spilled to a temporary file, and the sorted runs are merged when the corpus is done.
+ *
+ * usage: java haiku.CorpusBuilder [options] lexicon.txt corpus-file...
+ *   -o file          the dictionary file to write (default corpus-dictionary.txt)
+ *   -bigrams file    also count bigrams, and write them to the given file
+ *   -threads n       the number of tokenizer threads (default: one per processor)
+ *   -memory n        the number of bigram entries held in memory, across all threads, before spilling
+ */
+public class CorpusBuilder
+{
+	//-- the number of characters handed to a worker at a time
+	private static final int CHUNK_SIZE = 1 << 20;
+
+	//-- the marker for "no previous word" when counting bigrams
+	private static final int NONE = -1;
+
+
+	//-- the lexicon: every known word by id, its part of speech, and ids keyed by lower-case word
+	private final String[] words;
+	private final PartOfSpeech[] tags;
+	private final Map<String, Integer> ids;
+
+	private final boolean countBigrams;
+	private final int threads;
+	private final int spillThreshold;
+
+	//-- the tokenizer threads, and the number of chunks they may fall behind the reader
+	private final ExecutorService pool;
+	private final int maxInFlight;
+
+	//-- every worker's shard, and the bigram runs they have spilled to disk
+	private final ConcurrentLinkedQueue<Shard> shards = new ConcurrentLinkedQueue<Shard>();
+	private final ConcurrentLinkedQueue<File> runs = new ConcurrentLinkedQueue<File>();
+
+	//-- the first error thrown by a tokenizer thread; once set, the counts are incomplete
+	private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+	private final ThreadLocal<Shard> shard = new ThreadLocal<Shard>() {
+		protected Shard initialValue() {
+			Shard created = new Shard();
+			shards.add(created);
+			return created;
+		}
+	};
+
+
+	/**
+	 * Creates a builder that tags words using the given lexicon.
+	 *
+	 * @param lexicon the dictionary that supplies each word's part of speech
+	 * @param countBigrams whether to count bigrams as well as words
+	 * @param threads the number of tokenizer threads
+	 * @param memoryEntries the number of bigram entries held in memory, across all threads, before spilling
+	 */
+	public CorpusBuilder(Dictionary lexicon, boolean countBigrams, int threads, int memoryEntries)
+	{
+		words = lexicon.toArray();
+		tags = new PartOfSpeech[words.length];
+		ids = new HashMap<String, Integer>(words.length * 2);
+
+		for (int i = 0; i < words.length; i++) {
+			tags[i] = lexicon.getPOS(words[i]);
+			words[i] = words[i].trim();
+			ids.put(words[i].toLowerCase(), i);
+		}
+
+		this.countBigrams = countBigrams;
+		this.threads = Math.max(1, threads);
+		this.spillThreshold = Math.max(1024, memoryEntries / this.threads);
+		this.maxInFlight = this.threads * 2;
+
+		pool = Executors.newFixedThreadPool(this.threads, new ThreadFactory() {
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "corpus-tokenizer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+
+	// ============================ INGESTION ================================ \\
+
+	/**
+	 * Streams a text file through the tokenizer threads.  Returns once every chunk of it has been counted.
+	 *
+	 * @return the number of bytes read
+	 * @throws IOException if a tokenizer thread failed (for example, spilling to a full disk), so that the
+	 *   counts are incomplete
+	 */
+	public long ingest(File corpus) throws IOException, InterruptedException
+	{
+		//-- bounds the number of chunks read ahead of the workers, and so the memory they use
+		final Semaphore inFlight = new Semaphore(maxInFlight);
+
+		CountingInputStream counter = new CountingInputStream(new FileInputStream(corpus));
+		Reader in = new InputStreamReader(new BufferedInputStream(counter, 1 << 16), StandardCharsets.UTF_8);
+
+		long start = System.nanoTime();
+		long lastReport = start;
+
+		try {
+			char[] buffer = new char[CHUNK_SIZE];
+			int carried = 0;
+			int read;
+
+			while ((read = in.read(buffer, carried, buffer.length - carried)) >= 0 || carried > 0)
+			{
+				int length = carried + Math.max(read, 0);
+
+				// cut the chunk after its last non-letter, so no word is split between two chunks
+				int cut = length;
+				if (read >= 0) {
+					while (cut > 0 && isWordChar(buffer[cut - 1]))
+						cut--;
+					if (cut == 0 && length == buffer.length)
+						cut = length;  // one enormous "word"; split it anyway
+				}
+
+				if (cut > 0)
+				{
+					final char[] chunk = new char[cut];
+					System.arraycopy(buffer, 0, chunk, 0, cut);
+
+					inFlight.acquire();
+					pool.execute(new Runnable() {
+						public void run() {
+							try {
+								if (failure.get() == null)
+									shard.get().count(chunk);
+							}
+							catch (Throwable error) {
+								failure.compareAndSet(null, error);
+							}
+							finally {
+								inFlight.release();
+							}
+						}
+					});
+				}
+
+				carried = length - cut;
+				System.arraycopy(buffer, cut, buffer, 0, carried);
+
+				if (read < 0 || failure.get() != null)
+					break;
+
+				long now = System.nanoTime();
+				if (now - lastReport > TimeUnit.SECONDS.toNanos(5)) {
+					report(corpus.getName(), counter.count, now - start);
+					lastReport = now;
+				}
+			}
+		}
+		finally {
+			in.close();
+
+			// wait for the workers to finish every chunk handed to them
+			inFlight.acquire(maxInFlight);
+			inFlight.release(maxInFlight);
+		}
+
+		Throwable error = failure.get();
+		if (error != null)
+			throw new IOException("a tokenizer thread failed; the counts are incomplete", error);
+
+		report(corpus.getName(), counter.count, System.nanoTime() - start);
+		return counter.count;
+	}
+
+
+	private static void report(String name, long bytes, long nanos)
+	{
+		double megabytes = bytes / (1024.0 * 1024.0);
+		double seconds = Math.max(nanos, 1) / 1e9;
+		System.out.printf("   %s: %.1f MB in %.1f s (%.1f MB/s)%n", name, megabytes, seconds, megabytes / seconds);
+	}
+
+
+	private static boolean isWordChar(char c) {
+		return Character.isLetter(c) || c == '\'';
+	}
+
+
+	/**
+	 * One worker thread's counts.  Only its own thread touches a shard until ingestion is finished.
+	 */
+	private class Shard
+	{
+		final long[] unigrams = new long[words.length];
+		final LongCountMap bigrams = countBigrams ? new LongCountMap(spillThreshold) : null;
+
+
+		/**
+		 * Tokenize a chunk of text, and count the known words (and pairs of adjacent known words) in it.
+		 */
+		void count(char[] text)
+		{
+			StringBuilder token = new StringBuilder();
+			int previous = NONE;
+
+			for (int i = 0; i <= text.length; i++)
+			{
+				char c = (i < text.length) ? text[i] : ' ';
+
+				if (isWordChar(c)) {
+					token.append(Character.toLowerCase(c));
+					continue;
+				}
+
+				if (token.length() > 0)
+				{
+					Integer id = ids.get(token.toString());
+					token.setLength(0);
+
+					if (id == null) {
+						previous = NONE;  // an unknown word breaks the chain of bigrams
+					}
+					else {
+						unigrams[id]++;
+						if (bigrams != null && previous != NONE)
+							countBigram(previous, id);
+						previous = id;
+					}
+				}
+
+				// the end of a sentence breaks the chain of bigrams too
+				if (c == '.' || c == '!' || c == '?')
+					previous = NONE;
+			}
+		}
+
+
+		private void countBigram(int previous, int next)
+		{
+			bigrams.add(((long) previous << 32) | next, 1);
+
+			if (bigrams.size() >= spillThreshold)
+				spill();
+		}
+
+
+		/**
+		 * Writes this shard's bigram counts to disk as a sorted run, and empties the in-memory map.
+		 */
+		void spill()
+		{
+			if (bigrams == null || bigrams.size() == 0)
+				return;
+
+			long[] keys = new long[bigrams.size()];
+			long[] counts = new long[bigrams.size()];
+			bigrams.drainSorted(keys, counts);
+			bigrams.clear();
+
+			try {
+				File run = File.createTempFile("haiku-bigrams", ".run");
+				run.deleteOnExit();
+
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 1 << 16));
+				try {
+					for (int i = 0; i < keys.length; i++) {
+						out.writeLong(keys[i]);
+						out.writeLong(counts[i]);
+					}
+				}
+				finally {
+					out.close();
+				}
+				runs.add(run);
+			}
+			catch (IOException exception) {
+				throw new RuntimeException("could not spill bigram counts to disk", exception);
+			}
+		}
+	}
+
+
+	// ============================ OUTPUT ================================ \\
+
+	/**
+	 * Writes every word seen at least once, with its part of speech and frequency, as a dictionary text file.
+	 *
+	 * @return the number of words written
+	 */
+	public int writeDictionary(String filename) throws IOException
+	{
+		long[] totals = new long[words.length];
+		for (Shard s : shards)
+			for (int i = 0; i < totals.length; i++)
+				totals[i] += s.unigrams[i];
+
+		int written = 0;
+		PrintWriter out = new PrintWriter(filename, "UTF-8");
+		try {
+			for (int i = 0; i < words.length; i++)
+			{
+				if (totals[i] == 0)
+					continue;
+
+				out.println(words[i] + " | " + tags[i] + " | " + Math.min(totals[i], Integer.MAX_VALUE));
+				written++;
+			}
+		}
+		finally {
+			out.close();
+		}
+		return written;
+	}
+
+
+	/**
+	 * Merges every shard's bigram counts, in memory and on disk, and writes them as a bigram text file.
+	 * Bigrams seen fewer than minCount times are left out.
+	 *
+	 * @return the number of bigrams written
+	 */
+	public int writeBigrams(String filename, long minCount) throws IOException
+	{
+		// put every shard on disk, so that all counts can be merged as sorted runs
+		for (Shard s : shards)
+			s.spill();
+
+		List<RunReader> readers = new ArrayList<RunReader>();
+		PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>();
+		for (File run : runs) {
+			RunReader reader = new RunReader(run);
+			readers.add(reader);
+			if (reader.advance())
+				queue.add(reader);
+		}
+
+		int written = 0;
+		PrintWriter out = new PrintWriter(filename, "UTF-8");
+		try {
+			while (!queue.isEmpty())
+			{
+				long key = queue.peek().key;
+				long total = 0;
+
+				// sum this key across every run that holds it
+				while (!queue.isEmpty() && queue.peek().key == key) {
+					RunReader reader = queue.poll();
+					total += reader.count;
+					if (reader.advance())
+						queue.add(reader);
+				}
+
+				if (total < minCount)
+					continue;
+
+				out.println(words[(int) (key >>> 32)] + " | " + words[(int) key] + " | " + Math.min(total, Integer.MAX_VALUE));
+				written++;
+			}
+		}
+		finally {
+			out.close();
+			for (RunReader reader : readers)
+				reader.close();
+			for (File run : runs)
+				run.delete();
+			runs.clear();
+		}
+		return written;
+	}
+
+
+	/**
+	 * Reads the (key, count) pairs of one sorted run, in order.
+	 */
+	private static class RunReader implements Comparable<RunReader>
+	{
+		private final DataInputStream in;
+		long key;
+		long count;
+
+		RunReader(File run) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), 1 << 16));
+		}
+
+		/**
+		 * Moves to the next pair, returning false at the end of the run.
+		 */
+		boolean advance() throws IOException
+		{
+			try {
+				key = in.readLong();
+				count = in.readLong();
+				return true;
+			}
+			catch (EOFException exception) {
+				close();
+				return false;
+			}
+		}
+
+		void close()
+		{
+			try {
+				in.close();
+			}
+			catch (IOException exception) {
+				// nothing left to read
+			}
+		}
+
+		public int compareTo(RunReader other) {
+			return Long.compare(key, other.key);
+		}
+	}
+
+
+	/**
+	 * Counts the bytes read through it, for throughput reporting.
+	 */
+	private static class CountingInputStream extends FilterInputStream
+	{
+		volatile long count;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		public int read() throws IOException
+		{
+			int b = super.read();
+			if (b >= 0)
+				count++;
+			return b;
+		}
+
+		public int read(byte[] buffer, int offset, int length) throws IOException
+		{
+			int n = super.read(buffer, offset, length);
+			if (n > 0)
+				count += n;
+			return n;
+		}
+	}
+
+
+	// ============================ MAIN ================================ \\
+
+	public static void main(String[] args) throws Exception
+	{
+		String outFile = "corpus-dictionary.txt";
+		String bigramFile = null;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int memory = 8000000;
+		List<String> files = new ArrayList<String>();
+
+		for (int i = 0; i < args.length; i++)
+		{
+			if (args[i].equals("-o"))
+				outFile = args[++i];
+			else if (args[i].equals("-bigrams"))
+				bigramFile = args[++i];
+			else if (args[i].equals("-threads"))
+				threads = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-memory"))
+				memory = Integer.parseInt(args[++i]);
+			else
+				files.add(args[i]);
+		}
+
+		if (files.size() < 2) {
+			System.err.println("usage: java haiku.CorpusBuilder [-o dictionary.txt] [-bigrams bigrams.txt] "
+					+ "[-threads n] [-memory entries] lexicon.txt corpus-file...");
+			System.exit(2);
+		}
+
+		System.out.print("  Loading lexicon...");
+		Dictionary lexicon = new Dictionary(files.get(0));
+		System.out.println("done (" + lexicon.size() + " words)");
+
+		CorpusBuilder builder = new CorpusBuilder(lexicon, bigramFile != null, threads, memory);
+
+		long start = System.nanoTime();
+		long bytes = 0;
+		for (String file : files.subList(1, files.size()))
+			bytes += builder.ingest(new File(file));
+		report("total", bytes, System.nanoTime() - start);
+
+		System.out.println("   wrote " + builder.writeDictionary(outFile) + " words to " + outFile);
+		if (bigramFile != null)
+			System.out.println("   wrote " + builder.writeBigrams(bigramFile, 1) + " bigrams to " + bigramFile);
+	}
+}
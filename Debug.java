@@ -0,0 +1,15 @@
+package haiku;
+
+/**
+ * Switches the step-by-step console trace of haiku generation on or off.
+ * 
+ * The trace is off by default; run with -Dhaiku.debug=true to turn it on.  For production diagnostics,
+ * record the events in HaikuEvents with Flight Recorder instead.
+ */
+final class Debug 
+{
+	public static final boolean ENABLED = Boolean.getBoolean("haiku.debug");
+	
+	private Debug() {
+	}
+}
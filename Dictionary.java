@@ -1,21 +1,59 @@
 package haiku;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.HashMap;
+import java.util.BitSet;
 import java.util.HashSet;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Scanner;
+import java.util.Random;
 import java.util.Set;
 
 
 public class Dictionary 
 {	
-	//-- stores information about loaded words
-	private Map<String, PartOfSpeech> dictionary;
+	//-- stores information about loaded words (part of speech, syllables and frequency); 
+	//   may be shared with other dictionaries
+	private final WordPool pool;
+	
+	//-- the pool ids of the entries in this dictionary, at most one per word.  Words are stored, and looked
+	//   up, without surrounding whitespace.  Guarded by its own lock, so that words already read can be
+	//   queried while the rest of a dictionary file is still loading.
+	private final BitSet dictionary;
+	private int size;
+	
+	//-- counts the changes to this dictionary's entries, so that an index built from an older snapshot 
+	//   is not kept.  Guarded by the dictionary's lock.
+	private int version;
+	
+	//-- the dictionary this one is layered over, whose selection index it shares; null if none
+	private final Dictionary base;
+	
+	//-- the weight of a word with no recorded frequency
+	private static final int DEFAULT_FREQUENCY = 1;
+	
+	//-- words grouped by part of speech and syllable count, for random selection.
+	//   Rebuilt after a load, and lazily after words are added; null while out of date.
+	private volatile WordIndex index;
+	
+	
+	/**
+	 * Receives progress reports while a dictionary file is loading.
+	 */
+	public interface LoadListener 
+	{
+		/**
+		 * Called periodically during a load.
+		 * @param bytesRead the (approximate) number of bytes of the file read so far
+		 * @param totalBytes the length of the file
+		 */
+		void progress(long bytesRead, long totalBytes);
+	}
+	
+	//-- how many lines are read between progress reports
+	private static final int PROGRESS_INTERVAL = 4096;
 	
 	
 	/**
@@ -23,7 +61,35 @@ public class Dictionary
 	 */
 	public Dictionary() 
 	{
-		dictionary = new HashMap<String, PartOfSpeech>();
+		this(new WordPool());
+	}
+	
+	
+	/**
+	 * Creates an empty Dictionary that stores its words in the given (possibly shared) pool.
+	 */
+	public Dictionary(WordPool pool) 
+	{
+		this.pool = pool;
+		dictionary = new BitSet();
+		base = null;
+	}
+	
+	
+	/**
+	 * Creates a Dictionary layered over another: it starts with every word in the base dictionary, 
+	 * and shares its word pool and selection index.  Words added or loaded afterwards affect only the 
+	 * new dictionary, even those that give a base word a different part of speech or frequency.
+	 */
+	public Dictionary(Dictionary base) 
+	{
+		pool = base.pool;
+		this.base = base;
+		
+		synchronized (base.dictionary) {
+			dictionary = (BitSet) base.dictionary.clone();
+			size = base.size;
+		}
 	}
 	
 	
@@ -34,7 +100,7 @@ public class Dictionary
 	 */
 	public Dictionary(String filename) throws IOException 
 	{
-		dictionary = new HashMap<String, PartOfSpeech>();
+		this();
 		
 		load(filename);
 	}
@@ -50,73 +116,171 @@ public class Dictionary
 	 * @return true if the dictionary file was loaded successfully
 	 */
 	public boolean load(String filename) throws IOException
+	{
+		return load(filename, null);
+	}
+	
+	
+	/**
+	 * Read the given dictionary text file, and add its contents to this class' internal dictionary,
+	 * reporting progress to the given listener as it goes.
+	 * 
+	 * @param filename the filename of a dictionary text file
+	 * @param listener receives progress reports; may be null
+	 * 
+	 * @throws FileNotFoundException if the given file cannot be located
+	 * 
+	 * @return true if the dictionary file was loaded successfully
+	 */
+	public boolean load(String filename, LoadListener listener) throws IOException
 	{
 		if (filename == null)
 			return false;
 		if (!filename.toUpperCase().endsWith(".TXT"))
 			return false;
 
-		Scanner inFile = new Scanner(new File(filename));		
-
-		while(inFile.hasNextLine()) 	
-			loadItem(inFile.nextLine());
+		File file = new File(filename);
+		BufferedReader inFile = new BufferedReader(new FileReader(file));
+		
+		long total = file.length();
+		long read = 0;
+		int lines = 0;
 		
-		inFile.close();
+		try {
+			String line;
+			while((line = inFile.readLine()) != null) 
+			{
+				loadItem(line);
+				read += line.length() + 1;
+				
+				if (listener != null && ++lines % PROGRESS_INTERVAL == 0)
+					listener.progress(read, total);
+			}
+		}
+		finally {
+			inFile.close();
+		}
+		
+		buildIndex();
+		
+		if (listener != null)
+			listener.progress(total, total);
 		return true;
 	}
 	
 	
 	private boolean loadItem(String entry)
 	{
-		// this line enforces entry format, (word | PARTOFSPEECH) without parenthesis 
+		// this line enforces entry format, (word | PARTOFSPEECH) without parenthesis,
+		//  optionally followed by a frequency column (word | PARTOFSPEECH | frequency)
 		if (!entry.matches(".*|.*")) 
 			return false;
 		
 		//prune everything in line before delimiter (inclusive)
 		String posString = entry.substring(entry.indexOf('|') + 1);
 		
-		//prune everything in line after delimiter
-		String word = entry.substring(0, entry.indexOf('|'));
+		//prune everything in line after delimiter, and the spaces around the word
+		String word = entry.substring(0, entry.indexOf('|')).trim();
+		if (word.length() == 0)
+			return false;
+		
+		//read the frequency column, if there is one
+		int freq = 0;
+		if (posString.indexOf('|') >= 0) 
+		{
+			try {
+				freq = Integer.parseInt(posString.substring(posString.indexOf('|') + 1).trim());
+			}
+			catch (NumberFormatException exception) {
+				freq = 0;
+			}
+			posString = posString.substring(0, posString.indexOf('|'));
+		}
 		
 		if(posString.contains(" ADJECTIVE")) 
 		{
-			dictionary.put(word, PartOfSpeech.ADJECTIVE);
-			return true;
+			return putItem(word, PartOfSpeech.ADJECTIVE, freq);
 		}
 		
 		if(posString.contains(" ADVERB")) 
 		{
-			dictionary.put(word, PartOfSpeech.ADVERB);
-			return true;
+			return putItem(word, PartOfSpeech.ADVERB, freq);
 		}
 		
 		if(posString.contains(" PREPOSITION")) 
 		{
-			dictionary.put(word, PartOfSpeech.PREPOSITION);
-			return true;
+			return putItem(word, PartOfSpeech.PREPOSITION, freq);
 		}
 		
 		if(posString.contains(" ARTICLE")) 
 		{
-			dictionary.put(word, PartOfSpeech.ARTICLE);
-			return true;
+			return putItem(word, PartOfSpeech.ARTICLE, freq);
 		}
 		
 		if(posString.contains(" NOUN")) 
 		{
-			dictionary.put(word, PartOfSpeech.NOUN);
-			return true;
+			return putItem(word, PartOfSpeech.NOUN, freq);
 		}
 		
 		if(posString.contains(" VERB"))
 		{
-			dictionary.put(word, PartOfSpeech.VERB);
-			return true;
+			return putItem(word, PartOfSpeech.VERB, freq);
 		}
 		
 	
 		return false;
 	}
+	
+	
+	private boolean putItem(String word, PartOfSpeech pos, int freq)
+	{
+		int id = pool.put(word, pos, freq);
+		
+		synchronized (dictionary) 
+		{
+			// the most recent entry for a word wins, in this dictionary only
+			for (int other : pool.ids(word))
+				if (other != id && dictionary.get(other)) {
+					dictionary.clear(other);
+					size--;
+				}
+			
+			if (!dictionary.get(id)) {
+				dictionary.set(id);
+				size++;
+			}
+			
+			version++;
+			index = null;
+		}
+		return true;
+	}
+	
+	
+	/**
+	 * Returns the pool ids of every word in this dictionary.
+	 */
+	private int[] ids() 
+	{
+		synchronized (dictionary) 
+		{
+			int[] ids = new int[size];
+			
+			int i = 0;
+			for (int id = dictionary.nextSetBit(0); id >= 0; id = dictionary.nextSetBit(id + 1))
+				ids[i++] = id;
+			
+			return ids;
+		}
+	}
+	
+	
+	/**
+	 * Returns the word pool this dictionary stores its words in.
+	 */
+	public WordPool getPool() {
+		return pool;
+	}
 
 	
 	/**
@@ -133,8 +297,15 @@ public class Dictionary
 		
 		try {
 			PrintWriter outFile = new PrintWriter(filename);
-			for( Entry<String, PartOfSpeech> element : dictionary.entrySet())
-				outFile.println(element.getKey() + " | " + element.getValue());
+			for(int id : ids()) 
+			{
+				int freq = pool.frequency(id);
+				
+				if (freq == 0)
+					outFile.println(pool.word(id) + " | " + pool.pos(id));
+				else
+					outFile.println(pool.word(id) + " | " + pool.pos(id) + " | " + freq);
+			}
 			
 			outFile.close();
 			return true;
@@ -157,12 +328,17 @@ public class Dictionary
 	 */
 	public Set<String> wordSet(PartOfSpeech pos) 
 	{
+		HaikuEvents.DictionaryQuery event = new HaikuEvents.DictionaryQuery();
+		event.begin();
+		
 		Set<String> set = new HashSet<String>();
 		
-		for( Entry<String, PartOfSpeech> element : dictionary.entrySet())
-			if(element.getValue() == pos)
-				set.add(element.getKey());
+		for(int id : ids())
+			if(pool.pos(id) == pos)
+				set.add(pool.word(id));
 		
+		if (event.shouldCommit())
+			queried(event, "wordSet", pos, 0, Integer.MAX_VALUE, set.size());
 		return set;
 	}
 	
@@ -172,13 +348,18 @@ public class Dictionary
 	 */
 	public Set<String> wordSet(PartOfSpeech pos, int syl) 
 	{
+		HaikuEvents.DictionaryQuery event = new HaikuEvents.DictionaryQuery();
+		event.begin();
+		
 		Set<String> set = new HashSet<String>();
 		
-		for( Entry<String, PartOfSpeech> item : dictionary.entrySet())
-			if(item.getValue() == pos)
-				if(sylCount(item.getKey()) == syl)
-					set.add(item.getKey());
+		for(int id : ids())
+			if(pool.pos(id) == pos)
+				if(pool.syllables(id) == syl)
+					set.add(pool.word(id));
 		
+		if (event.shouldCommit())
+			queried(event, "wordSet", pos, syl, syl, set.size());
 		return set;
 	}
 	
@@ -192,28 +373,206 @@ public class Dictionary
 	 */
 	public Set<String> wordSet(PartOfSpeech pos, int sMin, int sMax) 
 	{
+		HaikuEvents.DictionaryQuery event = new HaikuEvents.DictionaryQuery();
+		event.begin();
+		
 		Set<String> set = new HashSet<String>();
 		
-		System.out.println("INITIAL WORDSET SIZE: " + set.size()
-				+ "\n Populating with " + pos + " with length between " + sMin + " and " + sMax);
+		if (Debug.ENABLED)
+			System.out.println("INITIAL WORDSET SIZE: " + set.size()
+					+ "\n Populating with " + pos + " with length between " + sMin + " and " + sMax);
 		
-		for(Entry<String, PartOfSpeech> item : dictionary.entrySet())
-			if(item.getValue() == pos) 
+		for(int id : ids())
+			if(pool.pos(id) == pos) 
 			{
-				int syl = sylCount(item.getKey());
+				int syl = pool.syllables(id);
 				
 				if(sMin <= syl && syl <= sMax)
-					set.add(item.getKey());
+					set.add(pool.word(id));
 			}
-		System.out.println("RETURNING WORD SET WITH SIZE: " + set.size());
+		if (Debug.ENABLED)
+			System.out.println("RETURNING WORD SET WITH SIZE: " + set.size());
+		
+		if (event.shouldCommit())
+			queried(event, "wordSet", pos, sMin, sMax, set.size());
 		return set;
 	}
 	
 	/**
 	 *  Returns the part of speech of the given word.
 	 */
-	public PartOfSpeech getPOS(String word) {
-		return dictionary.get(word);
+	public PartOfSpeech getPOS(String word) 
+	{
+		HaikuEvents.DictionaryQuery event = new HaikuEvents.DictionaryQuery();
+		event.begin();
+		
+		int id = memberId(word);
+		PartOfSpeech pos = (id < 0) ? null : pool.pos(id);
+		
+		if (event.shouldCommit())
+			queried(event, "getPOS", pos, 0, 0, (pos == null) ? 0 : 1);
+		return pos;
+	}
+	
+	
+	/**
+	 * Returns the pool id of the given word's entry, or -1 if it is not in this dictionary.
+	 */
+	private int memberId(String word) 
+	{
+		if (word == null)
+			return -1;
+		int[] ids = pool.ids(word.trim());
+		
+		synchronized (dictionary) 
+		{
+			for (int id : ids)
+				if (dictionary.get(id))
+					return id;
+			return -1;
+		}
+	}
+	
+	
+	/**
+	 * Fill in and commit a Flight Recorder event for a dictionary query.
+	 */
+	private static void queried(HaikuEvents.DictionaryQuery event, String method, PartOfSpeech pos, 
+			int sMin, int sMax, int resultSize) 
+	{
+		event.method = method;
+		event.pos = (pos == null) ? null : pos.name();
+		event.minSyllables = sMin;
+		event.maxSyllables = sMax;
+		event.resultSize = resultSize;
+		event.commit();
+	}
+	
+	
+	/**
+	 * Returns the frequency of the given word, or 1 if the dictionary gives it none.
+	 * Returns 0 if the word is not in this dictionary.
+	 */
+	public int getFrequency(String word) 
+	{
+		int id = memberId(word);
+		if (id < 0)
+			return 0;
+		
+		int freq = pool.frequency(id);
+		return (freq == 0) ? DEFAULT_FREQUENCY : freq;
+	}
+	
+	
+	/**
+	 * Picks a random word that has the specified part of speech, as well as a syllable count between 
+	 * sMin and sMax (inclusive).  Words are weighted by frequency where the dictionary gives one, 
+	 * and chosen uniformly otherwise.
+	 * 
+	 * Unlike wordSet(), this does not copy or scan the dictionary; it allocates nothing.
+	 * 
+	 * @param pos the part of speech
+	 * @param sMin the smallest number of syllables usable
+	 * @param sMax the largest number of syllables usable
+	 * @param random the source of randomness to use
+	 * @return a random word, or null if no word meets the criteria
+	 */
+	public String randomWord(PartOfSpeech pos, int sMin, int sMax, Random random) 
+	{
+		HaikuEvents.DictionaryQuery event = new HaikuEvents.DictionaryQuery();
+		event.begin();
+		
+		String word = pickWord(pos, sMin, sMax, random);
+		
+		if (event.shouldCommit()) 
+		{
+			// the number of words chosen between
+			int candidates = 0;
+			WordIndex current = index();
+			for (int syl = Math.max(sMin, 0); syl <= Math.min(sMax, current.maxSyllables()); syl++)
+				candidates += current.count(pos.ordinal(), syl);
+			
+			queried(event, "randomWord", pos, sMin, sMax, candidates);
+		}
+		return word;
+	}
+	
+	
+	private String pickWord(PartOfSpeech pos, int sMin, int sMax, Random random) 
+	{
+		WordIndex current = index();
+		int p = pos.ordinal();
+		
+		sMin = Math.max(sMin, 0);
+		sMax = Math.min(sMax, current.maxSyllables());
+		
+		double total = 0.0;
+		for (int syl = sMin; syl <= sMax; syl++)
+			total += current.weight(p, syl);
+		
+		if (total <= 0.0)
+			return null;
+		
+		// pick a syllable count in proportion to the weight of its words, then a word within it
+		double target = random.nextDouble() * total;
+		for (int syl = sMin; syl <= sMax; syl++) 
+		{
+			if (current.weight(p, syl) <= 0.0)
+				continue;
+			
+			target -= current.weight(p, syl);
+			if (target < 0.0)
+				return current.draw(p, syl, random);
+		}
+		
+		// rounding error; fall back on the last non-empty group
+		for (int syl = sMax; syl >= sMin; syl--)
+			if (current.weight(p, syl) > 0.0)
+				return current.draw(p, syl, random);
+		
+		return null;
+	}
+	
+	
+	/**
+	 * Returns the up-to-date selection index, rebuilding it if words have been added since it was built.
+	 */
+	private WordIndex index() 
+	{
+		WordIndex current = index;
+		if (current == null) 
+		{
+			synchronized (this) {
+				current = index;
+				if (current == null)
+					current = buildIndex();
+			}
+		}
+		return current;
+	}
+	
+	
+	/**
+	 * Builds a selection index over every word in this dictionary.  A layered dictionary reuses its base's 
+	 * buckets, and builds its own only for the entries the base does not have.
+	 */
+	private WordIndex buildIndex() 
+	{
+		BitSet members;
+		int built;
+		synchronized (dictionary) {
+			members = (BitSet) dictionary.clone();
+			built = version;
+		}
+		
+		WordIndex fresh = new WordIndex(pool, members, (base == null) ? null : base.index());
+		
+		// keep it only if no entry was added meanwhile; otherwise the next query builds another
+		synchronized (dictionary) {
+			if (version == built)
+				index = fresh;
+		}
+		return fresh;
 	}
 	
 	
@@ -321,15 +680,18 @@ public class Dictionary
 	 * Returns true if this dictionary contains no elements (words).
 	 */
 	public boolean isEmpty() {
-		return dictionary.isEmpty();
+		return size() == 0;
 	}
 	
 	
 	/**
 	 * Returns the number of entries in this dictionary.
 	 */
-	public int size() {
-		return dictionary.size();
+	public int size() 
+	{
+		synchronized (dictionary) {
+			return size;
+		}
 	}
 	
 	
@@ -337,7 +699,7 @@ public class Dictionary
 	 * Returns true if this dictionary contains the specified word.
 	 */
 	public boolean contains(String word) {
-		return dictionary.containsValue(word);
+		return memberId(word) >= 0;
 	}
 	
 	
@@ -346,14 +708,11 @@ public class Dictionary
 	 */
 	public String[] toArray() 
 	{	
-		String[] array = new String[dictionary.size()];
+		int[] ids = ids();
+		String[] array = new String[ids.length];
 		
-		int i = 0;
-		for(String item: dictionary.keySet()) 
-		{
-			array[i] = item;
-			i++;
-		}
+		for(int i = 0; i < ids.length; i++) 
+			array[i] = pool.word(ids[i]);
 		
 		return array;
 	}
@@ -365,17 +724,29 @@ public class Dictionary
 	 * @return true if the new word was added successfully
 	 */
 	public boolean add(String word, PartOfSpeech pos) 
+	{
+		return add(word, pos, 0);
+	}
+	
+	
+	/**
+	 * Add the specified word to this dictionary, with the given frequency (0 for none).
+	 * 
+	 * @return true if the new word was added successfully
+	 */
+	public boolean add(String word, PartOfSpeech pos, int freq) 
 	{
 		if (word == null || pos == null)
 			return false;
 		
+		word = word.trim();
 		if (word.length() == 0)
 			return false;
 		
 		if (pos == PartOfSpeech.BLANK)
 			return false;
 
-		dictionary.put(word, pos);
+		putItem(word, pos, freq);
 		return true;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,90 @@
+package haiku;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A set of named (themed) dictionaries served from one process, all sharing a single word pool.
+ *
+ * A theme either stands alone, holding only the words in its own file, or is layered over another
+ * dictionary, holding that dictionary's words plus its own.  Either way each theme is stored as a set of
+ * entry ids, so a word that appears in several themes is stored only once.  A layered theme is an overlay:
+ * where its file gives a word a different part of speech or frequency, only the theme sees the change, and
+ * its selection index reuses the base's, adding buckets for the theme's own entries alone.
+ */
+public class DictionaryCatalog
+{
+	//-- the words shared by every dictionary in this catalog
+	private final WordPool pool = new WordPool();
+
+	//-- the dictionaries in this catalog, by name
+	private final Map<String, Dictionary> dictionaries = new ConcurrentHashMap<String, Dictionary>();
+
+
+	/**
+	 * Loads a dictionary text file as a new, standalone theme.
+	 *
+	 * @param name the name of the theme
+	 * @param filename the filename of a dictionary text file
+	 * @return the new dictionary
+	 */
+	public Dictionary load(String name, String filename) throws IOException
+	{
+		Dictionary dictionary = new Dictionary(pool);
+		dictionary.load(filename);
+
+		dictionaries.put(name, dictionary);
+		return dictionary;
+	}
+
+
+	/**
+	 * Loads a dictionary text file as a new theme layered over an existing one.  The theme holds every
+	 * word in the base dictionary, plus those in the file; the base dictionary is unchanged.
+	 *
+	 * @param name the name of the theme
+	 * @param baseName the name of the dictionary to layer it over
+	 * @param filename the filename of a dictionary text file
+	 * @return the new dictionary
+	 * @throws IllegalArgumentException if there is no dictionary with the base name
+	 */
+	public Dictionary load(String name, String baseName, String filename) throws IOException
+	{
+		Dictionary base = dictionaries.get(baseName);
+		if (base == null)
+			throw new IllegalArgumentException("no dictionary named " + baseName);
+
+		Dictionary dictionary = new Dictionary(base);
+		dictionary.load(filename);
+
+		dictionaries.put(name, dictionary);
+		return dictionary;
+	}
+
+
+	/**
+	 * Returns the dictionary with the given name, or null if there is none.
+	 */
+	public Dictionary get(String name) {
+		return dictionaries.get(name);
+	}
+
+
+	/**
+	 * Returns the names of every dictionary in this catalog.
+	 */
+	public Set<String> names() {
+		return Collections.unmodifiableSet(dictionaries.keySet());
+	}
+
+
+	/**
+	 * Returns the word pool shared by every dictionary in this catalog.
+	 */
+	public WordPool getPool() {
+		return pool;
+	}
+}
@@ -0,0 +1,173 @@
+package haiku;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Learns which sentence graph edges tend to lead to complete lines.
+ *
+ * For each edge (node, next node) and number of syllables left in the line, it counts how often following
+ * the edge was tried and how often the line was then completed.  A sentence graph given these statistics
+ * multiplies each edge's weight by the edge's success rate (relative to an even chance), so that the search
+ * drifts toward edges that are productive for the syllables at hand.  The counters are LongAdders, so any
+ * number of generating threads can record into one table without contending.
+ *
+ * Learning is off unless a generator is given a table.  The table can be saved to a text file of the form
+ * (node | next | syllables left | attempts | completions), and loaded again at startup.
+ */
+public class EdgeStatistics
+{
+	//-- the name of the system property that names the file to learn into; unset to leave learning off
+	public static final String PROPERTY = "haiku.learn";
+
+	//-- the number of vertices in a sentence graph
+	private static final int NODES = 13;
+
+	//-- the largest number of syllables left that is told apart; more are counted with this many
+	private static final int MAX_SYLLABLES = 7;
+
+	//-- the smallest factor applied to an edge, so that no edge is ever locked out by bad luck
+	private static final double MIN_FACTOR = 0.25;
+
+	private final LongAdder[] attempts = new LongAdder[NODES * NODES * (MAX_SYLLABLES + 1)];
+	private final LongAdder[] completions = new LongAdder[NODES * NODES * (MAX_SYLLABLES + 1)];
+
+
+	/**
+	 * Creates an empty table, which leaves every weight as it is until it has learned something.
+	 */
+	public EdgeStatistics()
+	{
+		for (int i = 0; i < attempts.length; i++) {
+			attempts[i] = new LongAdder();
+			completions[i] = new LongAdder();
+		}
+	}
+
+
+	/**
+	 * Records one traversal of an edge.
+	 *
+	 * @param node the vertex the edge leaves
+	 * @param next the vertex the edge leads to
+	 * @param syllablesLeft the syllables left in the line on arriving at the next vertex
+	 * @param completed whether the line was completed after following the edge
+	 */
+	public void record(int node, int next, int syllablesLeft, boolean completed)
+	{
+		int cell = cell(node, next, syllablesLeft);
+		attempts[cell].increment();
+		if (completed)
+			completions[cell].increment();
+	}
+
+
+	/**
+	 * Returns the factor to multiply an edge's weight by: 1.0 for an edge that completes the line half the
+	 * time (or that has not been tried), up to 2.0 for one that always does, and down to MIN_FACTOR for one
+	 * that never does.
+	 */
+	public double factor(int node, int next, int syllablesLeft)
+	{
+		int cell = cell(node, next, syllablesLeft);
+		double rate = (completions[cell].sum() + 1.0) / (attempts[cell].sum() + 2.0);
+
+		return Math.max(2.0 * rate, MIN_FACTOR);
+	}
+
+
+	/**
+	 * Returns the number of traversals recorded so far.
+	 */
+	public long size()
+	{
+		long total = 0;
+		for (LongAdder count : attempts)
+			total += count.sum();
+		return total;
+	}
+
+
+	private static int cell(int node, int next, int syllablesLeft)
+	{
+		int syllables = Math.min(Math.max(syllablesLeft, 0), MAX_SYLLABLES);
+		return (node * NODES + next) * (MAX_SYLLABLES + 1) + syllables;
+	}
+
+
+	/**
+	 * Saves the table to a text file, one line for each (edge, syllables left) that has been tried.
+	 */
+	public void save(String filename) throws IOException
+	{
+		PrintWriter outFile = new PrintWriter(filename);
+		try {
+			for (int cell = 0; cell < attempts.length; cell++)
+			{
+				long tried = attempts[cell].sum();
+				if (tried == 0)
+					continue;
+
+				int syllables = cell % (MAX_SYLLABLES + 1);
+				int edge = cell / (MAX_SYLLABLES + 1);
+				outFile.println((edge / NODES) + " | " + (edge % NODES) + " | " + syllables + " | "
+						+ tried + " | " + completions[cell].sum());
+			}
+		}
+		finally {
+			outFile.close();
+		}
+	}
+
+
+	/**
+	 * Reads a table saved by save().  Malformed lines are skipped.
+	 *
+	 * @throws FileNotFoundException if the given file cannot be located
+	 */
+	public static EdgeStatistics load(String filename) throws IOException
+	{
+		EdgeStatistics statistics = new EdgeStatistics();
+
+		BufferedReader inFile = new BufferedReader(new FileReader(new File(filename)));
+		try {
+			String line;
+			while ((line = inFile.readLine()) != null)
+			{
+				String[] columns = line.split("\\|");
+				if (columns.length != 5)
+					continue;
+
+				int node, next, syllables;
+				long tried, completed;
+				try {
+					node = Integer.parseInt(columns[0].trim());
+					next = Integer.parseInt(columns[1].trim());
+					syllables = Integer.parseInt(columns[2].trim());
+					tried = Long.parseLong(columns[3].trim());
+					completed = Long.parseLong(columns[4].trim());
+				}
+				catch (NumberFormatException exception) {
+					continue;
+				}
+
+				if (node < 0 || node >= NODES || next < 0 || next >= NODES || tried < 0
+						|| completed < 0 || completed > tried)
+					continue;
+
+				int cell = cell(node, next, syllables);
+				statistics.attempts[cell].add(tried);
+				statistics.completions[cell].add(completed);
+			}
+		}
+		finally {
+			inFile.close();
+		}
+		return statistics;
+	}
+}
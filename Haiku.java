@@ -2,10 +2,13 @@ package haiku;
 
 import java.awt.BorderLayout;
 import java.awt.event.*;
-import java.io.*;
-import java.util.Random;
-import java.util.Set;
+import java.beans.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.management.JMException;
 import javax.swing.*;
 import javax.swing.text.*;
 
@@ -20,233 +23,214 @@ public class Haiku extends JFrame implements ActionListener
 {	
 	private static final long serialVersionUID = 1L;
 	
+	//-- the moment the program started, for startup timing
+	private static final long START_TIME = System.nanoTime();
+	
      // =========================== INTERNAL COMPONENTS =========================== \\
 
-		//stores desired sentence structure
-		private SentenceGraph graph;
-	
 		//stores information about loaded words
 		private Dictionary dictionary;
 	
+		//arranges loaded words into haiku
+		private HaikuGenerator generator;
+	
+		//runs generation off the event dispatch thread
+		private ExecutorService worker;
+	
+		//the next haiku, generated (or being generated) ahead of the next click
+		private Future<String> prefetched;
+	
+		//the click currently waiting on a haiku; null while idle
+		private GenerateTask pending;
+	
+		//whether a haiku has been generated yet, for startup timing
+		private final AtomicBoolean generatedFirst = new AtomicBoolean();
+	
 
 		// GUI components
 		private JButton generateButton;
 		private JTextPane output;
+		private JProgressBar progress;
 
 	
 	
      // =========================== CONSTRUCTOR AND MAIN =========================== \\
 	
+	/**
+	 * Shows the window straight away, and loads the dictionary behind it; the button is enabled once
+	 * the dictionary is ready.  Must be called on the event dispatch thread.
+	 */
 	public Haiku() 
 	{		
-		setupDictionary();
 		setupWindow();
-		System.out.println("   SETUP COMPLETE");
+		logElapsed("time to first window");
+		
+		setupDictionary();
 	}
 	
 	
-	public static void main(String[] args) {
-		new Haiku();
+	public static void main(String[] args) 
+	{
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				new Haiku();
+			}
+		});
 	}
 	
 	
-     // ============================ PRIMARY METHODS ================================ \\
-     
 	/**
-	 * The backbone of the program.
-	 * @return a complete haiku.
+	 * Log the time since the program started.
 	 */
-	public String generate() 
-	{
-		System.out.print("   Generating a haiku...");		
-		graph = new SentenceGraph();
-		
-		String[] outString = new String[3];
-		
-		do {
-			outString[0] = buildSentence(5, graph.getIndex());
-			
-			if(graph.reachedEnd())
-				graph.reset();
-			
-			outString[1] = buildSentence(7, graph.getIndex());
-			
-			if(graph.reachedEnd())
-				graph.reset();
-			
-			outString[2] = buildSentence(5, graph.getIndex());
-		} 
-		while (containsNull(outString));
-			
-		System.out.println("\n==== Cleaning up output ===\n\n-- capitalizing first letter --");
-		//capitalize first letter
-		outString[0] = outString[0].substring(0, 1).toUpperCase() + outString[0].substring(1);
-		
-		//adjust 'a' to 'an' where applicable
-		System.out.println("\n-- checking for article agreement --");
-		for (int i = 0; i < outString.length; i++) 
-		{
-			String[] st = outString[i].split("\\s");
-			System.out.print("tokenized string:  ");
-			for (int k = 0; k < st.length; k++)
-				System.out.print(" + " + st[k]);
-			System.out.println();
-			
-			for (int j = 0; j < st.length-1; j++) {
-				if (st[j].matches("[Aa]")) {
-					System.out.println("\'a\' found");
-					if (st[j+1].matches("[AaEeIiOoUu].*")) {
-						System.out.println("rectifying output");	
-						st[j] += "n";
-					}
-				}
-			}
-		}
-		
-		System.out.println("done");
-		
-		//-- consolidate strings for output
-		String haiku = "";
-		for (int i = 0; i < outString.length; i++)
-			haiku += " " + outString[i] + "\n";
-		
-		return haiku;
+	private static void logElapsed(String milestone) {
+		System.out.println("   " + milestone + ": " + (System.nanoTime() - START_TIME) / 1000000 + " ms");
 	}
-	 
 	
-	private boolean containsNull(String[] array)
-	{		
-		for (int i = 0; i < array.length; i++)
-			if (array[i] == null)
-				return true;
+	
+	// =================== SETUP METHODS ========================= \\
+	
+	/**
+	 * Initialize the supporting data structure for a Haiku generator, loading it in the background.
+	 */
+	private void setupDictionary() 
+	{
+		final String dictFileName = "dictionary.txt";
+		final String bigramFileName = "bigrams.txt";
 		
-		return false;
+		dictionary = new Dictionary();
+		new DictionaryLoader(dictFileName, bigramFileName).execute();
 	}
 	
 	
 	/**
-	 * This method recursively traverses the supporting sentence structure graph.
-	 * 
-	 * @param syllableCount the number of syllables remaining in the current line.
-	 * @param startIndex the index of the current graph node.
-	 * @return a string containing the current haiku line
+	 * Loads the dictionary file off the event dispatch thread, reporting progress to the window.
+	 * Generation is enabled once the whole file, and any bigram file, has been read.
 	 */
-	private String buildSentence(int syllablesLeft, int startIndex) 
+	private class DictionaryLoader extends SwingWorker<Void, Void> implements Dictionary.LoadListener
 	{
+		private final String filename;
+		private final String bigramFilename;
 		
-		//BASE CASE: the current line contains exactly (target) syllables
-		if (syllablesLeft <= 0)
-			return "";
-		
-		//BASE CASE: end of sentence is reached
-		if (startIndex >= graph.size() - 2 && syllablesLeft <= 0)
-			return "";
+		//the word-transition model, if a bigram file is present
+		private BigramModel bigrams;
 		
+		//the learned edge statistics, if learning is switched on
+		private EdgeStatistics statistics;
 		
-		//Pick a word (in this call) to add. If the dictionary runs out, or if 0 syllables are specified,
-		// this will return null.
-		PartOfSpeech nextPos = graph.getNode(startIndex);
-		String word = nextWord(nextPos, syllablesLeft);
-		
-		// if (word == null), no words can be found that meet the criteria.
-		if(word != null) {
+		DictionaryLoader(String filename, String bigramFilename) 
+		{
+			this.filename = filename;
+			this.bigramFilename = bigramFilename;
 			
-			// Iterate through the edges accessible from this position
-			int i = graph.nextEdge(startIndex);
+			addPropertyChangeListener(new PropertyChangeListener() {
+				public void propertyChange(PropertyChangeEvent event) {
+					if ("progress".equals(event.getPropertyName()))
+						progress.setValue((Integer) event.getNewValue());
+				}
+			});
+		}
+		
+		protected Void doInBackground() throws Exception 
+		{
+			System.out.print("  Loading dictionary...");
+			dictionary.load(filename, this);
+			System.out.println("done (" + dictionary.size() + " words)");
 			
-			//this stops the sentence from ending on a preposition or article
-			if(graph.reachedEnd() || syllablesLeft - Dictionary.sylCount(word) <1)
-					if(nextPos == PartOfSpeech.ARTICLE || nextPos == PartOfSpeech.PREPOSITION ) {
-						System.out.println(" Error: cannot end on a preposition or article. (BACKTRACKING)");
-						return null;
-					}
+			if (new File(bigramFilename).exists()) {
+				System.out.print("  Loading bigrams...");
+				bigrams = BigramModel.load(bigramFilename, dictionary);
+				System.out.println("done (" + bigrams.transitionCount() + " transitions)");
+			}
 			
-			while (graph.hasNextEdge(i) && i < graph.size() - 1) {
+			String learnFilename = System.getProperty(EdgeStatistics.PROPERTY);
+			if (learnFilename != null) {
+				System.out.print("  Loading edge statistics...");
+				statistics = new File(learnFilename).exists() 
+						? EdgeStatistics.load(learnFilename) : new EdgeStatistics();
+				System.out.println("done (" + statistics.size() + " traversals)");
 				
-				//attempt travel to the next available edge
-				System.out.println("attempting travel to edge: " + i + "    (pos: " + graph.getNode(i) + ")");
-				String temp = buildSentence(syllablesLeft - Dictionary.sylCount(word), i);
+				saveOnExit(statistics, learnFilename);
+			}
+			return null;
+		}
+		
+		public void progress(long bytesRead, long totalBytes) {
+			setProgress((int) (100 * bytesRead / Math.max(totalBytes, 1)));
+		}
+		
+		protected void done() 
+		{
+			try {
+				get();
+			}
+			catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+			}
+			catch (ExecutionException exception) {
 				
-				// if sentence can be completed by following this edge, commit the result.
-				// if (temp == null), method is backtracking (a dead end was reached in subsequent recursion).
-				if (temp != null) {
-					
-					if (!(graph.reachedEnd() || syllablesLeft - Dictionary.sylCount(word) <1)) {
-						if(nextPos == PartOfSpeech.ADVERB) // this call is an adverb
-							if((i != 2 || i != 8) && (i != 6))	   // next call is not a prep or verb
-								word = word.trim() + ", ";
-						if(nextPos == PartOfSpeech.ADJECTIVE) // this call is an adjective
-							if(i == 4 || i == 10)			  // next call is an adjective
-								word = word.trim() + ", ";
-					}
-					
-					return word + temp;
-				}
+				exception.getCause().printStackTrace();
+				JOptionPane.showMessageDialog(Haiku.this, exception.getCause().getMessage(), getTitle(), 
+						JOptionPane.ERROR_MESSAGE);
 				
-				i = graph.nextEdge(i);
+				System.exit(1);
+			}
+			
+			setupGenerator();
+			generator.setBigramModel(bigrams);
+			generator.setEdgeStatistics(statistics);
+			
+			try {
+				generator.getMonitor().register("window");
+			}
+			catch (JMException exception) {
+				exception.printStackTrace();
 			}
+			System.out.println("   SETUP COMPLETE");
+			
+			progress.setIndeterminate(true);
+			progress.setStringPainted(false);
+			generateButton.setText("Haiku");
+			setBusy(false);
+			
+			prefetch();
 		}
-		// if this point is reached, the method either has no more available edges or no words.
-		System.out.println("\n           DEAD END -- BACKTRACKING\n");
-		return null;
 	}
-
 	
 	
 	/**
-	 * Pick a random word from the dictionary that fits the given criteria.
-	 * @param pos the desired part of speech
-	 * @param sMax the MAXIMUM number of syllables that the word can have
+	 * Save what generation has learned about the sentence graph when the program exits,
+	 * for the next run to start from.
 	 */
-	private String nextWord(PartOfSpeech pos, int sMax) {
-		
-		System.out.println(" Searching for a " + pos + " with <" + sMax + " syllables...");
-		
-		if (pos == PartOfSpeech.BLANK)
-			return "";  // Advances sentence without using syllables or triggering backtracking
-		if (sMax <= 0)
-			return null;
-		
-		// Create a set of all words that meet desired criteria
-		Set<String> words = dictionary.wordSet(pos, 1, sMax);
-		if(words.size() == 0)
-			return null;
-		
-		// Choose one word from this set at random
-		int target = new Random().nextInt(words.size());
-		
-		int i = 0;
-		for(String s : words) {
-			if (i == target)
-				return s;
-		 	i++;
-		}
-		return null;
+	private static void saveOnExit(final EdgeStatistics statistics, final String filename)
+	{
+		Runtime.getRuntime().addShutdownHook(new Thread("haiku-learning") {
+			public void run() 
+			{
+				try {
+					statistics.save(filename);
+				}
+				catch (IOException exception) {
+					exception.printStackTrace();
+				}
+			}
+		});
 	}
 	
 	
-	
-	// =================== SETUP METHODS ========================= \\
-	
 	/**
-	 * Initialize the supporting data structure for a Haiku generator.
+	 * Initialize the generation engine, and the background thread it runs on.
 	 */
-	private void setupDictionary() 
+	private void setupGenerator() 
 	{
-		final String dictFileName = "dictionary.txt";
+		generator = new HaikuGenerator(dictionary);
 		
-		
-		try {
-			dictionary = new Dictionary(dictFileName);	
-		} 
-		catch (IOException exception) {
-			
-			exception.printStackTrace();
-			JOptionPane.showMessageDialog(this, exception.getMessage(), this.getTitle(), 
-					JOptionPane.ERROR_MESSAGE);
-			
-			System.exit(1);
-		}
+		worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "haiku-generator");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
 	}
 	
 	
@@ -258,10 +242,18 @@ public class Haiku extends JFrame implements ActionListener
 		System.out.print("  Creating GUI window...");
 		JPanel background = new JPanel(new BorderLayout());
 		
-		//setup generation button
-		generateButton = new JButton("Haiku");
+		//setup generation button, and the progress bar shown while a haiku is pending
+		JPanel controls = new JPanel(new BorderLayout());
+		generateButton = new JButton("Loading...");
 		generateButton.addActionListener(this);
-		background.add(generateButton, BorderLayout.SOUTH);
+		generateButton.setEnabled(false);
+		controls.add(generateButton, BorderLayout.CENTER);
+		
+		//-- shows dictionary loading progress until the dictionary is ready
+		progress = new JProgressBar(0, 100);
+		progress.setStringPainted(true);
+		controls.add(progress, BorderLayout.SOUTH);
+		background.add(controls, BorderLayout.SOUTH);
 		
 		//setup output field 
 		output = new JTextPane();
@@ -291,11 +283,95 @@ public class Haiku extends JFrame implements ActionListener
 	}
 	
 	
+	// =================== BACKGROUND GENERATION ========================= \\
+	
+	/**
+	 * Start generating the next haiku in the background, so that the next click can be served instantly.
+	 * Must be called on the event dispatch thread.
+	 */
+	private void prefetch() 
+	{
+		prefetched = worker.submit(new Callable<String>() {
+			public String call() 
+			{
+				String haiku = generator.generate();
+				
+				if (generatedFirst.compareAndSet(false, true))
+					logElapsed("time to first haiku");
+				return haiku;
+			}
+		});
+	}
+	
+	
+	/**
+	 * Waits (off the event dispatch thread) for the prefetched haiku, then displays it and starts on the next one.
+	 */
+	private class GenerateTask extends SwingWorker<String, Void> 
+	{
+		private final Future<String> result;
+		
+		GenerateTask(Future<String> result) {
+			this.result = result;
+		}
+		
+		protected String doInBackground() throws Exception {
+			return result.get();
+		}
+		
+		protected void done() 
+		{
+			try {
+				output.setText(get());
+			} 
+			catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+			}
+			catch (ExecutionException exception) {
+				exception.getCause().printStackTrace();
+				JOptionPane.showMessageDialog(Haiku.this, exception.getCause().toString(), getTitle(), 
+						JOptionPane.ERROR_MESSAGE);
+			}
+			
+			pending = null;
+			setBusy(false);
+			prefetch();
+		}
+	}
+	
+	
+	/**
+	 * Show or hide the progress indicator while a click is waiting on a haiku.
+	 */
+	private void setBusy(boolean busy) 
+	{
+		generateButton.setEnabled(!busy);
+		progress.setVisible(busy);
+		getContentPane().validate();
+	}
+	
+	
 	/**
 	 * Catch an ActionEvent -- used for identification of button clicks
 	 */
-	public void actionPerformed(ActionEvent e) {
-		if (e.getSource() == generateButton)
-			output.setText(generate());
+	public void actionPerformed(ActionEvent e) 
+	{
+		if (e.getSource() != generateButton)
+			return;
+		
+		// a haiku is already on its way; further clicks are folded into that request
+		if (pending != null)
+			return;
+		
+		Future<String> next = prefetched;
+		prefetched = null;
+		
+		boolean ready = next.isDone();
+		generator.getMonitor().prefetched(ready);
+		if (!ready)
+			setBusy(true);
+		
+		pending = new GenerateTask(next);
+		pending.execute();
 	}
 }
\ No newline at end of file
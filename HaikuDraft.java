@@ -0,0 +1,105 @@
+package haiku;
+
+import java.util.List;
+
+/**
+ * A generated haiku, together with the sentence graph state at the start of each of its lines,
+ * so that any one line can be regenerated without rebuilding the others.
+ * 
+ * Drafts are immutable; regenerating a line produces a new draft.
+ */
+public class HaikuDraft
+{
+	//-- the dictionary the haiku was drawn from
+	private final Dictionary dictionary;
+	
+	//-- the words each line was required to contain
+	private final List<List<RequiredWord>> required;
+	
+	//-- each line as built, before the haiku was formatted
+	private final String[] lines;
+	
+	//-- the graph state just before each line was built
+	private final SentenceGraph[] snapshots;
+	
+	//-- the formatted haiku
+	private final String text;
+	
+	
+	HaikuDraft(Dictionary dictionary, List<List<RequiredWord>> required, String[] lines, 
+			SentenceGraph[] snapshots, String text)
+	{
+		this.dictionary = dictionary;
+		this.required = required;
+		this.lines = lines.clone();
+		this.snapshots = snapshots.clone();
+		this.text = text;
+	}
+	
+	
+	/**
+	 * Returns the given line as built, before formatting.
+	 * @param line the line number, from 1 to 3
+	 */
+	public String getLine(int line) {
+		return lines[line - 1];
+	}
+	
+	
+	/**
+	 * Returns every line as built, before formatting.
+	 */
+	public String[] getLines() {
+		return lines.clone();
+	}
+	
+	
+	/**
+	 * Returns the formatted haiku.
+	 */
+	public String toString() {
+		return text;
+	}
+	
+	
+	Dictionary getDictionary() {
+		return dictionary;
+	}
+	
+	
+	List<RequiredWord> getRequired(int line) {
+		return required.get(line - 1);
+	}
+	
+	
+	/**
+	 * Returns a copy of this draft with different lines, keeping the saved graph states.
+	 */
+	HaikuDraft withLines(String[] lines, String text) {
+		return new HaikuDraft(dictionary, required, lines, snapshots, text);
+	}
+	
+	
+	/**
+	 * Returns a copy of this draft with different lines, built from different graph states.
+	 */
+	HaikuDraft withLines(String[] lines, SentenceGraph[] snapshots, String text) {
+		return new HaikuDraft(dictionary, required, lines, snapshots, text);
+	}
+	
+	
+	/**
+	 * Returns a fresh copy of the graph state from just before the given line was built.
+	 */
+	SentenceGraph snapshot(int line) {
+		return new SentenceGraph(snapshots[line - 1]);
+	}
+	
+	
+	/**
+	 * Returns the graph node the given line was built from.
+	 */
+	int startNode(int line) {
+		return snapshots[line - 1].getIndex();
+	}
+}
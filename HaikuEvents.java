@@ -0,0 +1,131 @@
+package haiku;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder events for looking inside a haiku generation.
+ *
+ * Each event is created, filled in and committed only where the recording has it enabled, so they
+ * cost next to nothing when no recording is running.  The settings in haiku.jfc enable all of them:
+ *
+ *   jcmd <pid> JFR.start settings=default settings=/path/to/haiku.jfc filename=haiku.jfr
+ */
+public final class HaikuEvents
+{
+	private HaikuEvents() {
+	}
+
+
+	@Name("haiku.Generation")
+	@Label("Haiku Generation")
+	@Description("One complete haiku, from a fresh sentence graph to formatted output")
+	@Category("Haiku")
+	@StackTrace(false)
+	public static class Generation extends Event
+	{
+		@Label("Attempts")
+		@Description("The number of times all three lines were built before none was a dead end")
+		public int attempts;
+
+		@Label("Haiku")
+		public String haiku;
+	}
+
+
+	@Name("haiku.Line")
+	@Label("Haiku Line")
+	@Description("One buildSentence search for a single line of a haiku")
+	@Category("Haiku")
+	@StackTrace(false)
+	public static class Line extends Event
+	{
+		@Label("Line")
+		@Description("The line number, from 1 to 3")
+		public int line;
+
+		@Label("Syllables")
+		public int syllables;
+
+		@Label("Start Node")
+		public int startNode;
+
+		@Label("Succeeded")
+		public boolean succeeded;
+
+		@Label("Text")
+		public String text;
+	}
+
+
+	@Name("haiku.DictionaryQuery")
+	@Label("Dictionary Query")
+	@Description("A wordSet, randomWord or getPOS lookup in a Dictionary")
+	@Category("Haiku")
+	@StackTrace(false)
+	public static class DictionaryQuery extends Event
+	{
+		@Label("Method")
+		public String method;
+
+		@Label("Part of Speech")
+		public String pos;
+
+		@Label("Minimum Syllables")
+		public int minSyllables;
+
+		@Label("Maximum Syllables")
+		public int maxSyllables;
+
+		@Label("Result Size")
+		@Description("The number of words returned, or for randomWord, the number of words it chose between")
+		public int resultSize;
+	}
+
+
+	@Name("haiku.Edge")
+	@Label("Sentence Graph Edge")
+	@Description("A SentenceGraph.nextEdge decision")
+	@Category("Haiku")
+	@StackTrace(false)
+	public static class Edge extends Event
+	{
+		@Label("From Node")
+		public int from;
+
+		@Label("To Node")
+		@Description("The node chosen, or -1 if no edge could be followed")
+		public int to;
+
+		@Label("Part of Speech")
+		public String pos;
+
+		@Label("Adjusted Weight")
+		public double weight;
+	}
+
+
+	@Name("haiku.Backtrack")
+	@Label("Backtrack")
+	@Description("A buildSentence call that reached a dead end and returned to its caller")
+	@Category("Haiku")
+	@StackTrace(false)
+	public static class Backtrack extends Event
+	{
+		@Label("Node")
+		public int node;
+
+		@Label("Part of Speech")
+		public String pos;
+
+		@Label("Syllables Left")
+		public int syllablesLeft;
+
+		@Label("Reason")
+		public String reason;
+	}
+}
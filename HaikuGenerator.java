@@ -0,0 +1,842 @@
+package haiku;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The generation engine behind the haiku window.  It arranges words from a loaded dictionary according to
+ * part of speech and syllabic order, independently of any GUI.
+ *
+ * Each call to generate() works on its own sentence graph, so a single generator may be shared between
+ * threads once its dictionary has finished loading.
+ */
+public class HaikuGenerator
+{
+	//stores information about loaded words
+	private final Dictionary dictionary;
+
+	//optionally chooses each word based on the word before it; null to choose words independently
+	private volatile BigramModel bigrams;
+
+	//the number of syllables in each line
+	private static final int[] LINE_SYLLABLES = {5, 7, 5};
+
+	//how many times all three lines are attempted before giving up on a haiku, for example one drawn from a
+	// theme too small to complete a line
+	private static final int MAX_ATTEMPTS = 200;
+
+	//how many times a single line is attempted before giving up on regenerating it
+	private static final int MAX_LINE_ATTEMPTS = 200;
+
+	//optionally learns which graph edges lead to complete lines, and favours them; null to leave learning off
+	private volatile EdgeStatistics statistics;
+
+	//optionally races several searches for each line on this pool; null to search one path at a time
+	private volatile ForkJoinPool searchPool;
+
+	//how far random perturbation may move an edge weight; see SentenceGraph.getAdjustedWeight()
+	private volatile double variance = SentenceGraph.DEFAULT_VARIANCE;
+
+	//live statistics, for JMX
+	private final HaikuMonitor monitor = new HaikuMonitor(this);
+
+	//the cancellation flag of a search that is never cancelled
+	private static final AtomicBoolean NEVER_CANCELLED = new AtomicBoolean();
+
+
+	/**
+	 * Creates a generator that draws its words from the given dictionary.
+	 */
+	public HaikuGenerator(Dictionary dictionary)
+	{
+		this.dictionary = dictionary;
+	}
+
+
+	/**
+	 * Returns the dictionary this generator draws its words from.
+	 */
+	public Dictionary getDictionary() {
+		return dictionary;
+	}
+
+
+	/**
+	 * Sets the word-transition model used to choose each word based on the word before it.
+	 * Pass null to go back to choosing every word independently.
+	 */
+	public void setBigramModel(BigramModel bigrams) {
+		this.bigrams = bigrams;
+	}
+
+
+	/**
+	 * Sets the table this generator learns edge success rates into, and steers its searches by.
+	 * Pass null to turn learning off.
+	 */
+	public void setEdgeStatistics(EdgeStatistics statistics) {
+		this.statistics = statistics;
+	}
+
+
+	/**
+	 * Returns the table this generator learns edge success rates into, or null if learning is off.
+	 */
+	public EdgeStatistics getEdgeStatistics() {
+		return statistics;
+	}
+
+
+	/**
+	 * Sets the pool used for low-latency (speculative) search.  Each line is then searched by one branch per
+	 * thread of the pool, each with its own copy of the sentence graph and its own random stream; the first
+	 * branch to complete the line wins, and the others are cancelled.  Pass null to go back to searching
+	 * one path at a time, on the calling thread.
+	 */
+	public void setSearchPool(ForkJoinPool pool) {
+		this.searchPool = pool;
+	}
+
+
+	/**
+	 * Returns the pool used for speculative search, or null if lines are searched one path at a time.
+	 */
+	public ForkJoinPool getSearchPool() {
+		return searchPool;
+	}
+
+
+	/**
+	 * Sets the variance of the random perturbation applied to edge weights when choosing the next edge,
+	 * for haiku started from now on.  The default is SentenceGraph.DEFAULT_VARIANCE.
+	 *
+	 * @throws IllegalArgumentException if the variance is negative or not a number
+	 */
+	public void setVariance(double variance)
+	{
+		if (!(variance >= 0.0) || Double.isInfinite(variance))
+			throw new IllegalArgumentException("variance must be zero or more: " + variance);
+		this.variance = variance;
+	}
+
+
+	/**
+	 * Returns the variance of the random perturbation applied to edge weights.
+	 */
+	public double getVariance() {
+		return variance;
+	}
+
+
+	/**
+	 * Returns the live statistics of this generator, which can be registered as a JMX MBean.
+	 */
+	public HaikuMonitor getMonitor() {
+		return monitor;
+	}
+
+
+     // ============================ PRIMARY METHODS ================================ \\
+
+	/**
+	 * The backbone of the program.
+	 * @return a complete haiku, or null if the dictionary's words cannot complete one.
+	 */
+	public String generate()
+	{
+		return generate(dictionary);
+	}
+
+
+	/**
+	 * Generate a haiku using the words of the given dictionary (for example, a theme from a
+	 * DictionaryCatalog) in place of this generator's own.
+	 * @return a complete haiku, or null if the dictionary's words cannot complete one.
+	 */
+	public String generate(Dictionary dictionary)
+	{
+		return generate(dictionary, Collections.<RequiredWord>emptyList());
+	}
+
+
+	/**
+	 * Generate a haiku that contains each of the given words, on the given lines.
+	 *
+	 * Each word's part of speech and syllable count are looked up first, and the search places it only
+	 * at sentence graph nodes with that part of speech, holding back enough syllables in its line for it.
+	 * Until it is placed, the search follows only edges from which such a node can still be reached with
+	 * the syllables left.  The work done is bounded: if no haiku is found within a fixed number of attempts,
+	 * this gives up.
+	 *
+	 * @param dictionary the dictionary to draw the other words from
+	 * @param required the words the haiku must contain
+	 * @return a complete haiku, or null if none containing the required words was found within the attempts
+	 * @throws IllegalArgumentException if a word is not in the dictionary, has a part of speech that has no
+	 *   place in a sentence, or if a line's required words have too many syllables for it
+	 */
+	public String generate(Dictionary dictionary, List<RequiredWord> required)
+	{
+		HaikuDraft draft = draft(dictionary, required);
+		return (draft == null) ? null : draft.toString();
+	}
+
+
+	/**
+	 * Generate a haiku as generate() does, but keep the sentence graph state from the start of each line,
+	 * so that lines can later be regenerated one at a time with regenerateLine().
+	 *
+	 * @param dictionary the dictionary to draw words from
+	 * @param required the words the haiku must contain
+	 * @return a draft of a complete haiku, or null if none containing the required words was found within
+	 *   the attempts
+	 */
+	public HaikuDraft draft(Dictionary dictionary, List<RequiredWord> required)
+	{
+		return draft(dictionary, required, NEVER_CANCELLED);
+	}
+
+
+	/**
+	 * Generate a draft as draft() does, giving up as soon as the given flag is set.
+	 *
+	 * @param cancelled set by another thread when the haiku is no longer wanted
+	 * @return a draft of a complete haiku, or null if none was found before the flag was set
+	 */
+	HaikuDraft draft(Dictionary dictionary, List<RequiredWord> required, AtomicBoolean cancelled)
+	{
+		List<List<RequiredWord>> pending = plan(dictionary, required);
+		long begin = System.nanoTime();
+
+		if (Debug.ENABLED)
+			System.out.print("   Generating a haiku...");
+		HaikuEvents.Generation event = new HaikuEvents.Generation();
+		event.begin();
+
+		SentenceGraph graph = new SentenceGraph();
+		graph.setStatistics(statistics);
+		graph.setVariance(variance);
+
+		String[] outString = new String[3];
+		SentenceGraph[] snapshots = new SentenceGraph[3];
+		int attempts = 0;
+
+		// the dead ends met on the way to this haiku, reported only if it is found
+		AtomicInteger deadEnds = new AtomicInteger();
+
+		do {
+			if (attempts == MAX_ATTEMPTS)
+				return null;
+			if (cancelled.get())
+				return null;
+
+			// a failed attempt can leave the cursor on a node no line can start from; start the poem afresh
+			if (attempts > 0)
+				graph.reset();
+
+			attempts++;
+			snapshots[0] = new SentenceGraph(graph);
+			outString[0] = buildLine(dictionary, graph, 1, LINE_SYLLABLES[0], pending.get(0), cancelled,
+					deadEnds);
+
+			if(graph.reachedEnd())
+				graph.reset();
+
+			snapshots[1] = new SentenceGraph(graph);
+			outString[1] = buildLine(dictionary, graph, 2, LINE_SYLLABLES[1], pending.get(1), cancelled,
+					deadEnds);
+
+			if(graph.reachedEnd())
+				graph.reset();
+
+			snapshots[2] = new SentenceGraph(graph);
+			outString[2] = buildLine(dictionary, graph, 3, LINE_SYLLABLES[2], pending.get(2), cancelled,
+					deadEnds);
+		}
+		while (containsNull(outString));
+
+		String haiku = format(outString);
+
+		if (event.shouldCommit()) {
+			event.attempts = attempts;
+			event.haiku = haiku;
+			event.commit();
+		}
+		monitor.generated(System.nanoTime() - begin, deadEnds.get());
+		return new HaikuDraft(dictionary, pending, outString, snapshots, haiku);
+	}
+
+
+	/**
+	 * Replace one line of a draft, rebuilding it from the graph state saved at its start.
+	 *
+	 * The lines of a haiku run on as one sentence across the line breaks, so a new first or second line is
+	 * only kept if it ends where the old one did: on the graph node the next line starts from, or at the end
+	 * of the sentence if the next line starts a new one.  The other lines are then kept as they are.  If no
+	 * such line is found, the lines after it are rebuilt as well.
+	 *
+	 * @param draft the haiku to change
+	 * @param line the line number to regenerate, from 1 to 3
+	 * @return a new draft with the line replaced, or null if no replacement was found
+	 */
+	public HaikuDraft regenerateLine(HaikuDraft draft, int line)
+	{
+		if (line < 1 || line > 3)
+			throw new IllegalArgumentException("line must be 1, 2 or 3: " + line);
+
+		for (int attempt = 0; attempt < MAX_LINE_ATTEMPTS; attempt++)
+		{
+			SentenceGraph graph = draft.snapshot(line);
+			String text = buildLine(draft.getDictionary(), graph, line, LINE_SYLLABLES[line - 1],
+					draft.getRequired(line), NEVER_CANCELLED, new AtomicInteger());
+
+			if (text != null && joins(draft, line, graph))
+			{
+				String[] outString = draft.getLines();
+				outString[line - 1] = text;
+
+				return draft.withLines(outString, format(outString));
+			}
+		}
+
+		// no new line leads into the next one as it stands; rebuild the rest of the haiku after it
+		for (int attempt = 0; attempt < MAX_LINE_ATTEMPTS; attempt++)
+		{
+			String[] outString = draft.getLines();
+			SentenceGraph[] snapshots = new SentenceGraph[LINE_SYLLABLES.length];
+			for (int n = 1; n <= line; n++)
+				snapshots[n - 1] = draft.snapshot(n);
+
+			SentenceGraph graph = draft.snapshot(line);
+			for (int n = line; n <= LINE_SYLLABLES.length; n++)
+			{
+				if (n > line)
+				{
+					if (graph.reachedEnd())
+						graph.reset();
+					snapshots[n - 1] = new SentenceGraph(graph);
+				}
+
+				outString[n - 1] = buildLine(draft.getDictionary(), graph, n, LINE_SYLLABLES[n - 1],
+						draft.getRequired(n), NEVER_CANCELLED, new AtomicInteger());
+				if (outString[n - 1] == null)
+					break;
+			}
+
+			if (!containsNull(outString))
+				return draft.withLines(outString, snapshots, format(outString));
+		}
+		return null;
+	}
+
+
+	/**
+	 * Determine whether a new version of a line, ending at the given graph state, leads into the draft's
+	 * next line as the old version did.
+	 */
+	private boolean joins(HaikuDraft draft, int line, SentenceGraph graph)
+	{
+		if (line == LINE_SYLLABLES.length)
+			return true;
+
+		// a line that ends the sentence is followed by a reset graph, at the start node
+		int next = draft.startNode(line + 1);
+		return graph.reachedEnd() ? (next == 0) : (graph.getIndex() == next);
+	}
+
+
+	/**
+	 * Generate alternatives for one line of a draft, each costing about one line of work.
+	 *
+	 * @param draft the haiku to vary
+	 * @param line the line number to vary, from 1 to 3
+	 * @param count the number of alternatives wanted
+	 * @return up to count new drafts, each differing from the original in the given line, and where that
+	 *   line no longer leads into the next, in the lines after it; see regenerateLine()
+	 */
+	public List<HaikuDraft> alternatives(HaikuDraft draft, int line, int count)
+	{
+		List<HaikuDraft> result = new ArrayList<HaikuDraft>();
+
+		for (int i = 0; i < count; i++) {
+			HaikuDraft alternative = regenerateLine(draft, line);
+			if (alternative != null)
+				result.add(alternative);
+		}
+		return result;
+	}
+
+
+	/**
+	 * Clean up the lines of a haiku, and join them for output.
+	 */
+	private String format(String[] lines)
+	{
+		String[] outString = lines.clone();
+
+		if (Debug.ENABLED)
+			System.out.println("\n==== Cleaning up output ===\n\n-- capitalizing first letter --");
+		//capitalize first letter
+		outString[0] = outString[0].substring(0, 1).toUpperCase() + outString[0].substring(1);
+
+		//adjust 'a' to 'an' where applicable
+		if (Debug.ENABLED)
+			System.out.println("\n-- checking for article agreement --");
+		for (int i = 0; i < outString.length; i++)
+		{
+			String[] st = outString[i].split("\\s");
+			if (Debug.ENABLED) {
+				System.out.print("tokenized string:  ");
+				for (int k = 0; k < st.length; k++)
+					System.out.print(" + " + st[k]);
+				System.out.println();
+			}
+
+			for (int j = 0; j < st.length-1; j++) {
+				if (st[j].matches("[Aa]")) {
+					if (Debug.ENABLED)
+						System.out.println("\'a\' found");
+					if (st[j+1].matches("[AaEeIiOoUu].*")) {
+						if (Debug.ENABLED)
+							System.out.println("rectifying output");
+						st[j] += "n";
+					}
+				}
+			}
+		}
+
+		if (Debug.ENABLED)
+			System.out.println("done");
+
+		//-- consolidate strings for output
+		String haiku = "";
+		for (int i = 0; i < outString.length; i++)
+			haiku += " " + outString[i] + "\n";
+
+		return haiku;
+	}
+
+
+	/**
+	 * Look up each required word, check that it can be placed, and sort the words by line.
+	 *
+	 * @return the required words for each line, with their part of speech and syllable count filled in
+	 */
+	private List<List<RequiredWord>> plan(Dictionary dictionary, List<RequiredWord> required)
+	{
+		List<List<RequiredWord>> lines = new ArrayList<List<RequiredWord>>();
+		int[] reserved = new int[LINE_SYLLABLES.length];
+		for (int i = 0; i < LINE_SYLLABLES.length; i++)
+			lines.add(new ArrayList<RequiredWord>());
+
+		SentenceGraph structure = new SentenceGraph();
+
+		for (RequiredWord request : required)
+		{
+			String word = request.getWord();
+			if (!dictionary.contains(word))
+				throw new IllegalArgumentException(request + ": not in the dictionary");
+
+			PartOfSpeech pos = dictionary.getPOS(word);
+			if (structure.nodesFor(pos).length == 0)
+				throw new IllegalArgumentException(request + ": a " + pos + " has no place in a sentence");
+
+			int line = request.getLine() - 1;
+			int syllables = Dictionary.sylCount(word);
+			reserved[line] += syllables;
+			if (syllables < 1 || reserved[line] > LINE_SYLLABLES[line])
+				throw new IllegalArgumentException(request + ": too many syllables for line " + (line + 1));
+
+			lines.get(line).add(new RequiredWord(word, request.getLine(), pos, syllables));
+		}
+
+		return lines;
+	}
+
+
+	private boolean containsNull(String[] array)
+	{
+		for (int i = 0; i < array.length; i++)
+			if (array[i] == null)
+				return true;
+
+		return false;
+	}
+
+
+	/**
+	 * Build one line of a haiku, starting from the graph's current node.
+	 *
+	 * @param line the line number, from 1 to 3
+	 * @param syllables the number of syllables in the line
+	 * @param required the words the line must contain
+	 * @param cancelled set when the haiku is no longer wanted
+	 * @param deadEnds counts the dead ends the search backtracks from
+	 * @return the line, or null if the search reached a dead end
+	 */
+	private String buildLine(Dictionary dictionary, SentenceGraph graph, int line, int syllables,
+			List<RequiredWord> required, AtomicBoolean cancelled, AtomicInteger deadEnds)
+	{
+		HaikuEvents.Line event = new HaikuEvents.Line();
+		event.begin();
+
+		int start = graph.getIndex();
+		ForkJoinPool pool = searchPool;
+		String text = (pool == null)
+				? buildSentence(dictionary, graph, syllables, start, null, required, cancelled, NEVER_CANCELLED, deadEnds)
+				: race(pool, dictionary, graph, syllables, required, cancelled, deadEnds);
+
+		if (event.shouldCommit()) {
+			event.line = line;
+			event.syllables = syllables;
+			event.startNode = start;
+			event.succeeded = (text != null);
+			event.text = text;
+			event.commit();
+		}
+		return text;
+	}
+
+
+	/**
+	 * Search for one line in several branches at once, one per thread of the pool.  Each branch searches from
+	 * its own copy of the graph, with its own random stream; the first to complete the line cancels the
+	 * others, and its graph state is copied back into the given graph.
+	 *
+	 * @param cancelled set when the haiku is no longer wanted; every branch then gives up
+	 * @param deadEnds counts the dead ends of the winning branch; those of the others went unused
+	 * @return the line, or null if every branch reached a dead end
+	 */
+	private String race(ForkJoinPool pool, final Dictionary dictionary, final SentenceGraph graph,
+			final int syllables, final List<RequiredWord> required, final AtomicBoolean cancelled,
+			final AtomicInteger deadEnds)
+	{
+		final int start = graph.getIndex();
+		final AtomicBoolean won = new AtomicBoolean();
+		final AtomicReference<SentenceGraph> winner = new AtomicReference<SentenceGraph>();
+
+		List<Callable<String>> branches = new ArrayList<Callable<String>>();
+		for (int b = 0; b < pool.getParallelism(); b++)
+		{
+			final SentenceGraph branch = new SentenceGraph(graph);
+			branch.setRandom(new Random(ThreadLocalRandom.current().nextLong()));
+			final AtomicInteger branchDeadEnds = new AtomicInteger();
+
+			branches.add(new Callable<String>() {
+				public String call()
+				{
+					String text = buildSentence(dictionary, branch, syllables, start, null, required, cancelled, won,
+							branchDeadEnds);
+					if (text == null || !won.compareAndSet(false, true))
+						return null;
+
+					winner.set(branch);
+					deadEnds.addAndGet(branchDeadEnds.get());
+					return text;
+				}
+			});
+		}
+
+		List<Future<String>> results;
+		try {
+			results = pool.invokeAll(branches);
+		}
+		catch (RejectedExecutionException exception) {
+			// the pool has been shut down (replaced, perhaps) since this search began; search alone
+			return buildSentence(dictionary, graph, syllables, start, null, required, cancelled, NEVER_CANCELLED,
+					deadEnds);
+		}
+
+		String text = null;
+		try {
+			for (Future<String> result : results)
+				if (result.get() != null)
+					text = result.get();
+		}
+		catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		catch (ExecutionException exception) {
+			throw new IllegalStateException("speculative search failed", exception.getCause());
+		}
+
+		if (text != null)
+			graph.restore(winner.get());
+		return text;
+	}
+
+
+	/**
+	 * This method recursively traverses the supporting sentence structure graph.
+	 *
+	 * @param dictionary the dictionary to draw words from.
+	 * @param graph the sentence graph being traversed by the current generation.
+	 * @param syllableCount the number of syllables remaining in the current line.
+	 * @param startIndex the index of the current graph node.
+	 * @param previous the last word placed in this line, or null at the start of a line.
+	 * @param pending required words not yet placed in this line.
+	 * @param cancelled set when the haiku is no longer wanted.
+	 * @param lost set when another branch of a speculative search has already completed the line.
+	 * @param deadEnds counts the dead ends this search backtracks from.
+	 * @return a string containing the current haiku line
+	 */
+	private String buildSentence(Dictionary dictionary, SentenceGraph graph, int syllablesLeft, int startIndex,
+			String previous, List<RequiredWord> pending, AtomicBoolean cancelled, AtomicBoolean lost,
+			AtomicInteger deadEnds)
+	{
+		if (abandoned(cancelled, lost))
+			return null;
+
+		//BASE CASE: the current line contains exactly (target) syllables, and every required word
+		if (syllablesLeft <= 0)
+			return pending.isEmpty() ? "" : null;
+
+		//BASE CASE: end of sentence is reached
+		if (startIndex >= graph.size() - 2 && syllablesLeft <= 0)
+			return "";
+
+
+		PartOfSpeech nextPos = graph.getNode(startIndex);
+
+		//If a required word can go here, try placing it first.
+		int reserved = 0;
+		for (RequiredWord required : pending)
+		{
+			reserved += required.getSyllables();
+
+			if (required.getPOS() == nextPos && required.getSyllables() <= syllablesLeft)
+			{
+				List<RequiredWord> rest = new ArrayList<RequiredWord>(pending);
+				rest.remove(required);
+
+				String sentence = placeWord(dictionary, graph, syllablesLeft, startIndex, previous, rest,
+						required.getWord(), cancelled, lost, deadEnds);
+				if (sentence != null)
+					return sentence;
+			}
+		}
+
+		//Pick a word (in this call) to add, leaving room for any required words. If the dictionary runs out,
+		// or if 0 syllables are specified, this will return null.
+		int sMin = 1;
+		int sMax = syllablesLeft - reserved;
+
+		if (nextPos == PartOfSpeech.ARTICLE || nextPos == PartOfSpeech.PREPOSITION)
+			sMax--;        // the line cannot end here, so leave room for a word after this one
+		else if (!graph.leadsToWord(startIndex))
+			sMin = sMax;   // no word can follow this one in the line, so it must fill the line
+
+		String word = nextWord(dictionary, nextPos, sMin, sMax, previous, graph.getRandom());
+
+		// if (word == null), no words can be found that meet the criteria.
+		if (word == null) {
+			if (Debug.ENABLED)
+				System.out.println("\n           DEAD END -- BACKTRACKING\n");
+			backtracked(startIndex, nextPos, syllablesLeft, "no word fits", deadEnds);
+			return null;
+		}
+
+		return placeWord(dictionary, graph, syllablesLeft, startIndex, previous, pending, word, cancelled, lost,
+				deadEnds);
+	}
+
+
+	/**
+	 * Place the given word at the current graph node, and try to complete the line from there.
+	 *
+	 * The edges out of the current node are tried in turn, most heavily weighted first.  When the rest of
+	 * the line cannot be completed along one, the graph is put back as it was before that edge was followed,
+	 * and the next is tried from the current node; only when every edge has failed does the search back up
+	 * to the node before.
+	 *
+	 * @param word the word chosen for the current node.
+	 * @return a string containing the rest of the current haiku line, starting with the given word,
+	 *   or null if the line cannot be completed
+	 */
+	private String placeWord(Dictionary dictionary, SentenceGraph graph, int syllablesLeft, int startIndex,
+			String previous, List<RequiredWord> pending, String word, AtomicBoolean cancelled, AtomicBoolean lost,
+			AtomicInteger deadEnds)
+	{
+		PartOfSpeech nextPos = graph.getNode(startIndex);
+
+		// Everything this call (and its recursion) does to the graph is undone if it backtracks, so that
+		// the next choice is made from the graph as it was, not as a dead end left it.
+		int mark = graph.mark();
+
+		// the syllables left in the line after this word
+		int left = syllablesLeft - Dictionary.sylCount(word);
+		EdgeStatistics learned = graph.getStatistics();
+
+		// Iterate through the edges accessible from this position, skipping those that leave no room for
+		// the required words still to be placed
+		int unplaceable = unreachable(graph, pending, left);
+		int i = graph.nextEdge(startIndex, unplaceable, left);
+
+		//this stops the line from ending on a preposition or article (the end of the sentence, like any
+		// other edge that leaves syllables unused, is skipped below)
+		if(left <1)
+				if(nextPos == PartOfSpeech.ARTICLE || nextPos == PartOfSpeech.PREPOSITION ) {
+					if (Debug.ENABLED)
+						System.out.println(" Error: cannot end on a preposition or article. (BACKTRACKING)");
+					backtracked(startIndex, nextPos, syllablesLeft, "line cannot end on " + nextPos, deadEnds);
+					graph.undo(mark);
+					return null;
+				}
+
+		int tried = 0;   // the edges from this node that have led to dead ends
+		while (i >= 0 && !abandoned(cancelled, lost)) {
+
+			// the end of the sentence can only be followed once the line is complete
+			if (left < 1 || (graph.hasNextEdge(i) && i < graph.size() - 1)) {
+
+				//attempt travel to the next available edge
+				if (Debug.ENABLED)
+					System.out.println("attempting travel to edge: " + i + "    (pos: " + graph.getNode(i) + ")");
+				String temp = buildSentence(dictionary, graph, left, i,
+						(word.length() == 0) ? previous : word, pending, cancelled, lost, deadEnds);
+
+				if (learned != null && !abandoned(cancelled, lost))
+					learned.record(startIndex, i, left, temp != null);
+
+				// if sentence can be completed by following this edge, commit the result.
+				// if (temp == null), method is backtracking (a dead end was reached in subsequent recursion).
+				if (temp != null) {
+
+					String separator = " ";
+					if (!(graph.reachedEnd() || left <1)) {
+						if(nextPos == PartOfSpeech.ADVERB) // this call is an adverb
+							if((i != 2 || i != 8) && (i != 6))	   // next call is not a prep or verb
+								separator = ", ";
+						if(nextPos == PartOfSpeech.ADJECTIVE) // this call is an adjective
+							if(i == 4 || i == 10)			  // next call is an adjective
+								separator = ", ";
+					}
+
+					return (word.length() == 0) ? temp : word + separator + temp;
+				}
+			}
+
+			// put the graph back as it was before this edge was followed, and try the next best one
+			tried |= 1 << i;
+			graph.undo(mark);
+			i = graph.nextEdge(startIndex, tried | unplaceable, left);
+		}
+
+		graph.undo(mark);
+		if (abandoned(cancelled, lost))
+			return null;   // abandoned, not a dead end
+
+		// if this point is reached, the method has no more available edges.
+		if (Debug.ENABLED)
+			System.out.println("\n           DEAD END -- BACKTRACKING\n");
+		backtracked(startIndex, nextPos, syllablesLeft, "no edge completes the line", deadEnds);
+		return null;
+	}
+
+
+	/**
+	 * Determine whether a search should give up: the haiku is no longer wanted, or another branch won the line.
+	 */
+	private static boolean abandoned(AtomicBoolean cancelled, AtomicBoolean lost) {
+		return cancelled.get() || lost.get();
+	}
+
+
+	/**
+	 * Returns the graph nodes (as a bit set, bit i for node i) from which some pending required word can no
+	 * longer be placed: there is no path through the edges open now to a node with its part of speech that
+	 * leaves one syllable, at least, for each word on the way.
+	 *
+	 * @param syllablesLeft the syllables left in the line
+	 */
+	private static int unreachable(SentenceGraph graph, List<RequiredWord> pending, int syllablesLeft)
+	{
+		if (pending.isEmpty())
+			return 0;
+
+		int spare = syllablesLeft;
+		for (RequiredWord required : pending)
+			spare -= required.getSyllables();
+
+		int nodes = 0;
+		for (RequiredWord required : pending)
+		{
+			int[] words = graph.wordsBefore(required.getPOS());
+			for (int node = 0; node < words.length; node++)
+				if (words[node] < 0 || words[node] > spare)
+					nodes |= 1 << node;
+		}
+		return nodes;
+	}
+
+
+	/**
+	 * Record a dead end in the search.  It is counted in the given tally, which reaches the monitor only if
+	 * the search it belongs to produces a haiku.
+	 */
+	private void backtracked(int node, PartOfSpeech pos, int syllablesLeft, String reason, AtomicInteger deadEnds)
+	{
+		deadEnds.incrementAndGet();
+
+		HaikuEvents.Backtrack event = new HaikuEvents.Backtrack();
+		if (event.shouldCommit()) {
+			event.node = node;
+			event.pos = pos.name();
+			event.syllablesLeft = syllablesLeft;
+			event.reason = reason;
+			event.commit();
+		}
+	}
+
+
+
+	/**
+	 * Pick a random word from the dictionary that fits the given criteria, weighted by word frequency
+	 * where the dictionary records one.  If a bigram model is set, the word is drawn from the words 
+	 * seen following the previous one, where there are any that fit.
+	 * @param dictionary the dictionary to draw words from
+	 * @param pos the desired part of speech
+	 * @param sMin the MINIMUM number of syllables that the word can have
+	 * @param sMax the MAXIMUM number of syllables that the word can have
+	 * @param previous the word before this one, or null
+	 * @param random the random stream of the current search
+	 */
+	private String nextWord(Dictionary dictionary, PartOfSpeech pos, int sMin, int sMax, String previous,
+			Random random) {
+
+		if (Debug.ENABLED)
+			System.out.println(" Searching for a " + pos + " with " + sMin + " to " + sMax + " syllables...");
+
+		if (pos == PartOfSpeech.BLANK)
+			return "";  // Advances sentence without using syllables or triggering backtracking
+		if (sMax <= 0 || sMax < sMin)
+			return null;
+
+		BigramModel model = bigrams;
+		if (model != null) {
+			String word = model.next(previous, pos, sMin, sMax, random);
+
+			// the model matches words without regard to case, and may have been built from another dictionary
+			// than the one being drawn from (a theme, say); only take a word that dictionary holds as this part
+			// of speech
+			boolean found = (word != null && dictionary.getPOS(word) == pos);
+			monitor.bigramLookup(found);
+			if (found)
+				return word;
+		}
+
+		// Choose one word that meets desired criteria at random
+		return dictionary.randomWord(pos, sMin, sMax, random);
+	}
+}
@@ -0,0 +1,222 @@
+package haiku;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * The live statistics of one haiku generator, exposed over JMX.
+ *
+ * The generator records into LongAdder counters and a LatencyHistogram, so generating threads never contend
+ * on them; totals are only summed when an attribute is read.  The counters only ever grow, so reset() works by
+ * remembering the totals at the time, and reporting the difference.
+ */
+public class HaikuMonitor implements HaikuMonitorMXBean
+{
+	private final HaikuGenerator generator;
+
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private final LongAdder generated = new LongAdder();
+	private final LongAdder backtracks = new LongAdder();
+	private final LongAdder prefetchHits = new LongAdder();
+	private final LongAdder prefetchMisses = new LongAdder();
+	private final LongAdder bigramHits = new LongAdder();
+	private final LongAdder bigramMisses = new LongAdder();
+
+	//-- the totals at the last reset
+	private volatile Totals baseline = new Totals();
+
+	//-- the search pool this monitor created, and so may shut down when replacing it
+	private ForkJoinPool searchPool;
+
+
+	/**
+	 * The counters' totals at one moment.
+	 */
+	private class Totals
+	{
+		final long time = System.nanoTime();
+		final long[] histogram = latency.snapshot();
+		final long latencyNanos = latency.totalNanos();
+		final long haiku = generated.sum();
+		final long backtracked = backtracks.sum();
+		final long prefetchHit = prefetchHits.sum();
+		final long prefetchMiss = prefetchMisses.sum();
+		final long bigramHit = bigramHits.sum();
+		final long bigramMiss = bigramMisses.sum();
+	}
+
+
+	HaikuMonitor(HaikuGenerator generator) {
+		this.generator = generator;
+	}
+
+
+	/**
+	 * Registers this monitor with the platform MBean server, as haiku:type=HaikuGenerator,name=(name).
+	 */
+	public void register(String name) throws JMException {
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+				new ObjectName("haiku:type=HaikuGenerator,name=" + ObjectName.quote(name)));
+	}
+
+
+	// ============================ RECORDING ================================ \\
+
+	/**
+	 * Records a haiku, with the dead ends backtracked from in the search that found it.  Those of speculative
+	 * branches that lost, and of drafts given up before completing, are not counted.
+	 */
+	void generated(long nanos, int deadEnds)
+	{
+		latency.record(nanos);
+		generated.increment();
+		backtracks.add(deadEnds);
+	}
+
+
+	/**
+	 * Returns the number of dead ends backtracked from in finding the haiku generated since the generator
+	 * started, ignoring reset().
+	 */
+	long totalBacktracks() {
+		return backtracks.sum();
+	}
+
+
+	void bigramLookup(boolean found)
+	{
+		if (found)
+			bigramHits.increment();
+		else
+			bigramMisses.increment();
+	}
+
+
+	/**
+	 * Records whether a haiku asked for was already prefetched.
+	 */
+	void prefetched(boolean ready)
+	{
+		if (ready)
+			prefetchHits.increment();
+		else
+			prefetchMisses.increment();
+	}
+
+
+	// ============================ STATISTICS ================================ \\
+
+	public long getGenerated() {
+		return generated.sum() - baseline.haiku;
+	}
+
+
+	public double getHaikuPerSecond()
+	{
+		Totals from = baseline;
+		double seconds = (System.nanoTime() - from.time) / 1e9;
+		return (generated.sum() - from.haiku) / seconds;
+	}
+
+
+	public double getMeanMillis()
+	{
+		Totals from = baseline;
+		long haiku = generated.sum() - from.haiku;
+		return (haiku == 0) ? 0.0 : (latency.totalNanos() - from.latencyNanos) / 1e6 / haiku;
+	}
+
+
+	public double getP99Millis()
+	{
+		long[] histogram = LatencyHistogram.difference(latency.snapshot(), baseline.histogram);
+		return LatencyHistogram.percentile(histogram, 99.0) / 1e6;
+	}
+
+
+	public double getBacktracksPerHaiku()
+	{
+		Totals from = baseline;
+		long haiku = generated.sum() - from.haiku;
+		return (haiku == 0) ? 0.0 : (double) (backtracks.sum() - from.backtracked) / haiku;
+	}
+
+
+	public int getDictionarySize() {
+		return generator.getDictionary().size();
+	}
+
+
+	public Map<String, Integer> getDictionarySizes()
+	{
+		Map<String, Integer> sizes = new LinkedHashMap<String, Integer>();
+		for (PartOfSpeech pos : PartOfSpeech.values())
+			if (pos != PartOfSpeech.BLANK)
+				sizes.put(pos.name(), generator.getDictionary().wordSet(pos).size());
+		return sizes;
+	}
+
+
+	public double getPrefetchHitRate()
+	{
+		Totals from = baseline;
+		return rate(prefetchHits.sum() - from.prefetchHit, prefetchMisses.sum() - from.prefetchMiss);
+	}
+
+
+	public double getBigramHitRate()
+	{
+		Totals from = baseline;
+		return rate(bigramHits.sum() - from.bigramHit, bigramMisses.sum() - from.bigramMiss);
+	}
+
+
+	private static double rate(long hits, long misses) {
+		return (hits + misses == 0) ? Double.NaN : (double) hits / (hits + misses);
+	}
+
+
+	public void reset() {
+		baseline = new Totals();
+	}
+
+
+	// ============================ SETTINGS ================================ \\
+
+	public double getVariance() {
+		return generator.getVariance();
+	}
+
+
+	public void setVariance(double variance) {
+		generator.setVariance(variance);
+	}
+
+
+	public int getSearchThreads()
+	{
+		ForkJoinPool pool = generator.getSearchPool();
+		return (pool == null) ? 0 : pool.getParallelism();
+	}
+
+
+	public synchronized void setSearchThreads(int threads)
+	{
+		if (threads < 0)
+			throw new IllegalArgumentException("thread count must be zero or more: " + threads);
+
+		ForkJoinPool old = searchPool;
+		searchPool = (threads == 0) ? null : new ForkJoinPool(threads);
+		generator.setSearchPool(searchPool);
+
+		// searches already racing on the old pool finish there; a pool set by someone else is theirs to stop
+		if (old != null)
+			old.shutdown();
+	}
+}
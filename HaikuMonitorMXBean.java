@@ -0,0 +1,52 @@
+package haiku;
+
+import java.util.Map;
+
+/**
+ * The management interface of a running haiku generator: live statistics, and settings that can be
+ * changed without a restart.  Statistics cover the time since the generator started, or since reset().
+ */
+public interface HaikuMonitorMXBean
+{
+	/** Returns the number of haiku generated. */
+	long getGenerated();
+
+	/** Returns the number of haiku generated per second. */
+	double getHaikuPerSecond();
+
+	/** Returns the mean time taken to generate a haiku, in milliseconds. */
+	double getMeanMillis();
+
+	/** Returns the 99th percentile of the time taken to generate a haiku, in milliseconds. */
+	double getP99Millis();
+
+	/** Returns the mean number of dead ends backtracked from in the search that found each haiku. */
+	double getBacktracksPerHaiku();
+
+	/** Returns the number of words in the generator's dictionary. */
+	int getDictionarySize();
+
+	/** Returns the number of words in the generator's dictionary for each part of speech. */
+	Map<String, Integer> getDictionarySizes();
+
+	/** Returns the fraction of clicks served by a haiku that was already prefetched, or NaN if none yet. */
+	double getPrefetchHitRate();
+
+	/** Returns the fraction of word choices the bigram model could serve, or NaN if it has not been asked. */
+	double getBigramHitRate();
+
+	/** Returns the variance of the random perturbation applied to edge weights. */
+	double getVariance();
+
+	/** Sets the variance of the random perturbation applied to edge weights, for haiku started from now on. */
+	void setVariance(double variance);
+
+	/** Returns the number of threads racing to build each line, or 0 if lines are searched on one thread. */
+	int getSearchThreads();
+
+	/** Sets the number of threads racing to build each line; 0 searches each line on one thread. */
+	void setSearchThreads(int threads);
+
+	/** Restarts the statistics from zero. */
+	void reset();
+}
@@ -0,0 +1,15 @@
+package haiku;
+
+/**
+ * Rates the quality of a generated haiku, so that the best of several candidates can be chosen.
+ *
+ * Scores are between 0.0 (worst) and 1.0 (best).  A scorer may be called from several threads at once.
+ * Ready-made scorers, and a way to combine them, are in HaikuScorers.
+ */
+public interface HaikuScorer
+{
+	/**
+	 * Returns the score of the given haiku, from 0.0 to 1.0.
+	 */
+	double score(HaikuDraft haiku);
+}
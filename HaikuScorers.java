@@ -0,0 +1,148 @@
+package haiku;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Ready-made haiku scorers, each scoring from 0.0 to 1.0.
+ */
+public final class HaikuScorers
+{
+	//-- the number of syllables each line should have
+	private static final int[] LINE_SYLLABLES = {5, 7, 5};
+
+
+	private HaikuScorers() {
+	}
+
+
+	/**
+	 * Scores how closely the lines' syllable counts, by Dictionary.sylCount, match 5-7-5: 1.0 for an exact
+	 * match, less one seventeenth for each syllable too many or too few.
+	 */
+	public static HaikuScorer syllableExactness()
+	{
+		return new HaikuScorer() {
+			public double score(HaikuDraft haiku)
+			{
+				String[][] lines = words(haiku);
+				int error = 0;
+
+				for (int n = 0; n < lines.length; n++)
+				{
+					int syllables = 0;
+					for (String word : lines[n])
+						syllables += Dictionary.sylCount(word);
+					error += Math.abs(syllables - LINE_SYLLABLES[n]);
+				}
+				return Math.max(0.0, 1.0 - error / 17.0);
+			}
+		};
+	}
+
+
+	/**
+	 * Scores alliteration: the fraction of neighbouring words, within a line, that start with the same letter.
+	 */
+	public static HaikuScorer alliteration()
+	{
+		return new HaikuScorer() {
+			public double score(HaikuDraft haiku)
+			{
+				int pairs = 0;
+				int alliterating = 0;
+
+				for (String[] line : words(haiku))
+					for (int i = 1; i < line.length; i++) {
+						pairs++;
+						if (line[i].charAt(0) == line[i - 1].charAt(0))
+							alliterating++;
+					}
+				return (pairs == 0) ? 0.0 : (double) alliterating / pairs;
+			}
+		};
+	}
+
+
+	/**
+	 * Scores plausibility by the given bigram model: the fraction of neighbouring words, within a line,
+	 * that the model has seen together.
+	 */
+	public static HaikuScorer bigramPlausibility(final BigramModel model)
+	{
+		return new HaikuScorer() {
+			public double score(HaikuDraft haiku)
+			{
+				int pairs = 0;
+				int seen = 0;
+
+				for (String[] line : words(haiku))
+					for (int i = 1; i < line.length; i++) {
+						pairs++;
+						if (model.count(line[i - 1], line[i]) > 0)
+							seen++;
+					}
+				return (pairs == 0) ? 0.0 : (double) seen / pairs;
+			}
+		};
+	}
+
+
+	/**
+	 * Scores variety: the fraction of the haiku's words that are not repeats of an earlier word.
+	 */
+	public static HaikuScorer noRepeatedWords()
+	{
+		return new HaikuScorer() {
+			public double score(HaikuDraft haiku)
+			{
+				Set<String> distinct = new HashSet<String>();
+				int total = 0;
+
+				for (String[] line : words(haiku))
+					for (String word : line) {
+						distinct.add(word);
+						total++;
+					}
+				return (total == 0) ? 0.0 : (double) distinct.size() / total;
+			}
+		};
+	}
+
+
+	/**
+	 * Combines several scorers, scoring each haiku by the mean of their scores.
+	 */
+	public static HaikuScorer average(final HaikuScorer... scorers)
+	{
+		if (scorers.length == 0)
+			throw new IllegalArgumentException("at least one scorer is needed");
+
+		return new HaikuScorer() {
+			public double score(HaikuDraft haiku)
+			{
+				double total = 0.0;
+				for (HaikuScorer scorer : scorers)
+					total += scorer.score(haiku);
+				return total / scorers.length;
+			}
+		};
+	}
+
+
+	/**
+	 * Splits each line of a haiku into lower-case words, dropping spaces and punctuation.
+	 */
+	private static String[][] words(HaikuDraft haiku)
+	{
+		String[] lines = haiku.getLines();
+		String[][] words = new String[lines.length][];
+
+		for (int n = 0; n < lines.length; n++)
+		{
+			String line = lines[n].trim().toLowerCase();
+			words[n] = (line.length() == 0) ? new String[0] : line.split("[\\s,]+");
+		}
+		return words;
+	}
+}
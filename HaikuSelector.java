@@ -0,0 +1,226 @@
+package haiku;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates several candidate haiku at once for a single request, and returns the best by a pluggable scorer.
+ *
+ * Candidates are generated and scored on a fixed number of threads, with a bounded queue; when the queue
+ * is full, the requesting thread generates candidates itself, until the deadline.  Each request has a
+ * deadline: candidates not yet submitted by then are dropped, those still generating are told to stop
+ * (wherever they run), and the best candidate ready is returned.
+ */
+public class HaikuSelector
+{
+	private final HaikuGenerator generator;
+	private final HaikuScorer scorer;
+	private final ThreadPoolExecutor executor;
+
+	//-- cancels each request's candidates when its deadline passes
+	private final ScheduledThreadPoolExecutor timer;
+
+	//-- how many candidates may wait for a thread, per thread, before the requesting thread has to help
+	private static final int QUEUE_PER_THREAD = 16;
+
+	//-- how long past the deadline to wait for a candidate that is finishing, if none was ready in time
+	private static final long GRACE_MILLIS = 5;
+
+
+	/**
+	 * A generated candidate and its score.
+	 */
+	private static class Candidate
+	{
+		final HaikuDraft draft;
+		final double score;
+
+		Candidate(HaikuDraft draft, double score)
+		{
+			this.draft = draft;
+			this.score = score;
+		}
+	}
+
+
+	/**
+	 * Creates a selector that draws candidates from the given generator, on the given number of threads.
+	 */
+	public HaikuSelector(HaikuGenerator generator, HaikuScorer scorer, int threads)
+	{
+		this.generator = generator;
+		this.scorer = scorer;
+
+		final AtomicInteger count = new AtomicInteger();
+		int size = Math.max(1, threads);
+
+		executor = new ThreadPoolExecutor(size, size, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(size * QUEUE_PER_THREAD),
+				new ThreadFactory() {
+					public Thread newThread(Runnable task) {
+						Thread thread = new Thread(task, "haiku-candidate-" + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				},
+				new ThreadPoolExecutor.CallerRunsPolicy());
+
+		timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "haiku-deadline");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		timer.setRemoveOnCancelPolicy(true);
+	}
+
+
+	/**
+	 * Generates the given number of candidates from the generator's own dictionary, and returns the best.
+	 * @see #select(Dictionary, List, int, long, TimeUnit)
+	 */
+	public ScoredHaiku select(int candidates, long timeout, TimeUnit unit) throws InterruptedException
+	{
+		return select(generator.getDictionary(), Collections.<RequiredWord>emptyList(), candidates, timeout, unit);
+	}
+
+
+	/**
+	 * Generates the given number of candidates, and returns the best of those ready by the deadline.
+	 * At the deadline, the candidates still generating are told to stop; if none was ready, one that
+	 * finishes within a few milliseconds more is taken, and otherwise null is returned.
+	 *
+	 * @param dictionary the dictionary to draw words from
+	 * @param required the words each candidate must contain
+	 * @param candidates the number of candidates to generate
+	 * @param timeout how long to wait for candidates
+	 * @return the best candidate with its score, or null if no candidate containing the required words was
+	 *   found in time
+	 * @throws IllegalArgumentException if a required word cannot be placed
+	 */
+	public ScoredHaiku select(final Dictionary dictionary, final List<RequiredWord> required, int candidates,
+			long timeout, TimeUnit unit) throws InterruptedException
+	{
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		final AtomicBoolean cancelled = new AtomicBoolean();
+
+		// candidates check this flag as they search, even one running on this thread
+		ScheduledFuture<?> expiry = timer.schedule(new Runnable() {
+			public void run() {
+				cancelled.set(true);
+			}
+		}, unit.toNanos(timeout), TimeUnit.NANOSECONDS);
+
+		CompletionService<Candidate> completion = new ExecutorCompletionService<Candidate>(executor);
+		List<Future<Candidate>> futures = new ArrayList<Future<Candidate>>();
+
+		Candidate best = null;
+		double[] scores = new double[candidates];
+		int scored = 0;
+
+		try {
+			for (int i = 0; i < candidates; i++)
+			{
+				// a full queue makes this thread generate the candidate itself, so stop at the deadline
+				if (i > 0 && System.nanoTime() - deadline >= 0)
+					break;
+
+				futures.add(completion.submit(new Callable<Candidate>() {
+					public Candidate call()
+					{
+						if (cancelled.get())
+							return null;
+
+						HaikuDraft draft = generator.draft(dictionary, required, cancelled);
+						return (draft == null) ? null : new Candidate(draft, scorer.score(draft));
+					}
+				}));
+			}
+
+			for (int finished = 0; finished < futures.size(); )
+			{
+				long left = deadline - System.nanoTime();
+				Future<Candidate> result;
+
+				if (left > 0)
+					result = completion.poll(left, TimeUnit.NANOSECONDS);
+				else if ((result = completion.poll()) == null)
+				{
+					// the deadline has passed, and every candidate already finished has been scored
+					cancelled.set(true);
+					long grace = left + TimeUnit.MILLISECONDS.toNanos(GRACE_MILLIS);
+					if (best != null || grace <= 0)
+						break;
+					result = completion.poll(grace, TimeUnit.NANOSECONDS);
+				}
+
+				if (result == null)
+					continue;   // the deadline (or the grace period after it) has passed
+				finished++;
+
+				Candidate candidate = get(result);
+				if (candidate == null)
+					continue;
+
+				scores[scored++] = candidate.score;
+				if (best == null || candidate.score > best.score)
+					best = candidate;
+			}
+		}
+		finally {
+			expiry.cancel(false);
+			cancelled.set(true);
+			for (Future<Candidate> future : futures)
+				future.cancel(false);
+		}
+
+		if (best == null)
+			return null;
+
+		double[] ready = new double[scored];
+		System.arraycopy(scores, 0, ready, 0, scored);
+		return new ScoredHaiku(best.draft, best.score, ready, candidates);
+	}
+
+
+	private static Candidate get(Future<Candidate> result)
+	{
+		try {
+			return result.get();
+		}
+		catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();    // not reached; the result is complete
+			return null;
+		}
+		catch (ExecutionException exception) {
+			if (exception.getCause() instanceof RuntimeException)
+				throw (RuntimeException) exception.getCause();
+			throw new IllegalStateException("candidate generation failed", exception.getCause());
+		}
+	}
+
+
+	/**
+	 * Stops the candidate threads.  The selector cannot be used afterwards.
+	 */
+	public void shutdown()
+	{
+		executor.shutdownNow();
+		timer.shutdownNow();
+	}
+}
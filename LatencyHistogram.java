@@ -0,0 +1,132 @@
+package haiku;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations, in nanoseconds, that many threads can record into without contending.
+ *
+ * Each power of two is split into 16 buckets, so a reported percentile is within about 6% of the true value.
+ * Counts only ever grow; to measure an interval, take a snapshot at each end and subtract.
+ */
+class LatencyHistogram
+{
+	//-- buckets per power of two, as a number of bits
+	private static final int SUB_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	//-- enough buckets for every non-negative long
+	private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+	private final LongAdder[] counts = new LongAdder[BUCKETS];
+	private final LongAdder total = new LongAdder();
+
+
+	LatencyHistogram()
+	{
+		for (int i = 0; i < BUCKETS; i++)
+			counts[i] = new LongAdder();
+	}
+
+
+	/**
+	 * Records one duration.
+	 */
+	void record(long nanos)
+	{
+		long value = Math.max(nanos, 0);
+		counts[bucket(value)].increment();
+		total.add(value);
+	}
+
+
+	/**
+	 * Returns the number of durations recorded in each bucket so far.
+	 */
+	long[] snapshot()
+	{
+		long[] result = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++)
+			result[i] = counts[i].sum();
+		return result;
+	}
+
+
+	/**
+	 * Returns the sum of every duration recorded so far, in nanoseconds.
+	 */
+	long totalNanos() {
+		return total.sum();
+	}
+
+
+	/**
+	 * Returns the bucket-by-bucket difference between two snapshots.
+	 */
+	static long[] difference(long[] later, long[] earlier)
+	{
+		long[] result = new long[later.length];
+		for (int i = 0; i < later.length; i++)
+			result[i] = later[i] - earlier[i];
+		return result;
+	}
+
+
+	/**
+	 * Returns the number of durations in a snapshot.
+	 */
+	static long count(long[] snapshot)
+	{
+		long n = 0;
+		for (long c : snapshot)
+			n += c;
+		return n;
+	}
+
+
+	/**
+	 * Returns (an upper bound on) the given percentile of a snapshot, in nanoseconds, or 0 if it is empty.
+	 *
+	 * @param percentile between 0.0 and 100.0
+	 */
+	static long percentile(long[] snapshot, double percentile)
+	{
+		long n = count(snapshot);
+		if (n == 0)
+			return 0;
+
+		long rank = (long) Math.ceil(n * percentile / 100.0);
+		long seen = 0;
+		for (int i = 0; i < snapshot.length; i++)
+		{
+			seen += snapshot[i];
+			if (seen >= Math.max(rank, 1))
+				return upperBound(i);
+		}
+		return upperBound(snapshot.length - 1);
+	}
+
+
+	private static int bucket(long value)
+	{
+		if (value < SUB_BUCKETS)
+			return (int) value;
+
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);      // position of the highest bit
+		int shift = magnitude - SUB_BITS;
+		int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);      // the next SUB_BITS bits
+
+		return (shift + 1) * SUB_BUCKETS + sub;
+	}
+
+
+	private static long upperBound(int bucket)
+	{
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+
+		int shift = bucket / SUB_BUCKETS - 1;
+		long sub = bucket % SUB_BUCKETS;
+
+		return (((SUB_BUCKETS + sub + 1) << shift) - 1);
+	}
+}
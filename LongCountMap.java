@@ -0,0 +1,138 @@
+package haiku;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from non-negative long keys to long counts, stored in two flat arrays with open addressing,
+ * so that counting does not box or allocate per entry.
+ */
+class LongCountMap
+{
+	//-- marks an unused slot; never a valid key
+	private static final long EMPTY = -1L;
+
+	private long[] keys;
+	private long[] counts;
+	private int size;
+
+
+	/**
+	 * Creates an empty map with room for the given number of entries before it needs to grow.
+	 */
+	LongCountMap(int expected)
+	{
+		int capacity = Integer.highestOneBit(Math.max(16, expected * 2 - 1)) << 1;
+		keys = new long[capacity];
+		counts = new long[capacity];
+		Arrays.fill(keys, EMPTY);
+	}
+
+
+	/**
+	 * Returns the number of distinct keys in this map.
+	 */
+	int size() {
+		return size;
+	}
+
+
+	/**
+	 * Adds the given amount to the count for a key.
+	 */
+	void add(long key, long amount)
+	{
+		int slot = find(keys, key);
+
+		if (keys[slot] == EMPTY)
+		{
+			keys[slot] = key;
+			size++;
+
+			if (size * 2 > keys.length) {
+				grow();
+				slot = find(keys, key);
+			}
+		}
+
+		counts[slot] += amount;
+	}
+
+
+	/**
+	 * Returns the count for a key, or 0 if it has none.
+	 */
+	long get(long key)
+	{
+		int slot = find(keys, key);
+		return (keys[slot] == EMPTY) ? 0 : counts[slot];
+	}
+
+
+	/**
+	 * Removes every entry from this map, keeping its capacity.
+	 */
+	void clear()
+	{
+		Arrays.fill(keys, EMPTY);
+		Arrays.fill(counts, 0);
+		size = 0;
+	}
+
+
+	/**
+	 * Writes every key, in ascending order, into sortedKeys, and the matching counts into sortedCounts.
+	 * Both arrays must hold at least size() elements.
+	 */
+	void drainSorted(long[] sortedKeys, long[] sortedCounts)
+	{
+		int n = 0;
+		for (int i = 0; i < keys.length; i++)
+			if (keys[i] != EMPTY)
+				sortedKeys[n++] = keys[i];
+
+		Arrays.sort(sortedKeys, 0, n);
+
+		for (int i = 0; i < n; i++)
+			sortedCounts[i] = get(sortedKeys[i]);
+	}
+
+
+	private static int find(long[] table, long key)
+	{
+		int mask = table.length - 1;
+		int slot = hash(key) & mask;
+
+		while (table[slot] != EMPTY && table[slot] != key)
+			slot = (slot + 1) & mask;
+
+		return slot;
+	}
+
+
+	private static int hash(long key)
+	{
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+
+	private void grow()
+	{
+		long[] oldKeys = keys;
+		long[] oldCounts = counts;
+
+		keys = new long[oldKeys.length * 2];
+		counts = new long[oldKeys.length * 2];
+		Arrays.fill(keys, EMPTY);
+
+		for (int i = 0; i < oldKeys.length; i++)
+		{
+			if (oldKeys[i] == EMPTY)
+				continue;
+
+			int slot = find(keys, oldKeys[i]);
+			keys[slot] = oldKeys[i];
+			counts[slot] = oldCounts[i];
+		}
+	}
+}
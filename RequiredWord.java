@@ -0,0 +1,77 @@
+package haiku;
+
+/**
+ * A word that a generated haiku must contain, on a given line.
+ */
+public class RequiredWord
+{
+	private final String word;
+	private final int line;
+
+	//-- filled in once the word has been looked up in a dictionary
+	private final PartOfSpeech pos;
+	private final int syllables;
+
+
+	/**
+	 * Requires the given word to appear on the given line.
+	 *
+	 * @param word the word, as it appears in the dictionary; surrounding whitespace is ignored
+	 * @param line the line number, from 1 to 3
+	 */
+	public RequiredWord(String word, int line)
+	{
+		this(word, line, null, 0);
+	}
+
+
+	RequiredWord(String word, int line, PartOfSpeech pos, int syllables)
+	{
+		if (word == null || word.trim().length() == 0)
+			throw new IllegalArgumentException("a required word cannot be empty");
+		if (line < 1 || line > 3)
+			throw new IllegalArgumentException("line must be 1, 2 or 3: " + line);
+
+		this.word = word.trim();
+		this.line = line;
+		this.pos = pos;
+		this.syllables = syllables;
+	}
+
+
+	/**
+	 * Returns the required word.
+	 */
+	public String getWord() {
+		return word;
+	}
+
+
+	/**
+	 * Returns the line the word must appear on, from 1 to 3.
+	 */
+	public int getLine() {
+		return line;
+	}
+
+
+	/**
+	 * Returns the word's part of speech, or null if it has not been looked up yet.
+	 */
+	public PartOfSpeech getPOS() {
+		return pos;
+	}
+
+
+	/**
+	 * Returns the word's syllable count, or 0 if it has not been looked up yet.
+	 */
+	public int getSyllables() {
+		return syllables;
+	}
+
+
+	public String toString() {
+		return word + " (line " + line + ")";
+	}
+}
@@ -0,0 +1,66 @@
+package haiku;
+
+/**
+ * The haiku chosen from a set of candidates, with its score and the scores of every candidate
+ * that was ready in time, for monitoring output quality.
+ */
+public class ScoredHaiku
+{
+	private final HaikuDraft draft;
+	private final double score;
+
+	//-- the score of each candidate that was ready in time, including the chosen one
+	private final double[] candidateScores;
+
+	//-- the number of candidates asked for
+	private final int requested;
+
+
+	ScoredHaiku(HaikuDraft draft, double score, double[] candidateScores, int requested)
+	{
+		this.draft = draft;
+		this.score = score;
+		this.candidateScores = candidateScores.clone();
+		this.requested = requested;
+	}
+
+
+	/**
+	 * Returns the chosen haiku, as a draft whose lines can be regenerated.
+	 */
+	public HaikuDraft getDraft() {
+		return draft;
+	}
+
+
+	/**
+	 * Returns the chosen haiku's score, from 0.0 to 1.0.
+	 */
+	public double getScore() {
+		return score;
+	}
+
+
+	/**
+	 * Returns the score of every candidate that was ready in time, in the order they finished.
+	 */
+	public double[] getCandidateScores() {
+		return candidateScores.clone();
+	}
+
+
+	/**
+	 * Returns the number of candidates asked for; fewer are scored if the deadline passed first.
+	 */
+	public int getRequested() {
+		return requested;
+	}
+
+
+	/**
+	 * Returns the formatted haiku.
+	 */
+	public String toString() {
+		return draft.toString();
+	}
+}
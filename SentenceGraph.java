@@ -1,6 +1,8 @@
 package haiku;
 
+import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class SentenceGraph {
 	
@@ -42,6 +44,29 @@ public class SentenceGraph {
 	//-- an internal cursor; this stores the index of the vertex last visited
 	private int iterator;
 	
+	/*
+	 * The undo trail: every change to the matrix or the cursor since the last reset, oldest first.
+	 * Each entry holds the cell that changed (row * size + column, or CURSOR for the cursor) and its old value.
+	 */
+	private int[] trailCells = new int[64];
+	private double[] trailValues = new double[64];
+	private int trailSize;
+	
+	//-- marks a trail entry that records the cursor rather than an edge
+	private static final int CURSOR = -1;
+	
+	//-- the random stream that perturbs edge weights; shared with any snapshot of this graph
+	private Random random = ThreadLocalRandom.current();
+	
+	//-- learned edge success rates that scale the weights, or null to use the weights as they are
+	private EdgeStatistics statistics;
+	
+	//-- how far random perturbation may move an edge weight when choosing the next edge
+	private double variance = DEFAULT_VARIANCE;
+	
+	/** The variance used when choosing edges, unless set otherwise. */
+	public static final double DEFAULT_VARIANCE = 0.2;
+	
 	
 	
 	/************************************\
@@ -52,6 +77,34 @@ public class SentenceGraph {
 	public SentenceGraph() {
 		reset();
 	}
+	
+	
+	/**
+	 * Creates a snapshot of another graph's traversal state: its cursor and its current edge weights.
+	 * Traversing the copy leaves the original untouched.  The copy starts with an empty undo trail.
+	 */
+	public SentenceGraph(SentenceGraph other) 
+	{
+		random = other.random;
+		statistics = other.statistics;
+		variance = other.variance;
+		restore(other);
+	}
+	
+	
+	/**
+	 * Returns this graph to another graph's traversal state, as though it had been traversed the same way.
+	 * The undo trail is cleared; this graph keeps its own random stream.
+	 */
+	public void restore(SentenceGraph other) 
+	{
+		iterator = other.iterator;
+		trailSize = 0;
+		
+		matrix = new double[other.matrix.length][];
+		for (int i = 0; i < matrix.length; i++)
+			matrix[i] = other.matrix[i].clone();
+	}
 
 	
 	
@@ -70,6 +123,56 @@ public class SentenceGraph {
 		return iterator;
 	}
 
+	/**
+	 * Returns the random stream used to choose between edges (and, by the generator, between words).
+	 */
+	public Random getRandom() {
+		return random;
+	}
+	
+	
+	/**
+	 * Sets the random stream used to choose between edges.  By default a graph uses the current thread's
+	 * stream; a search that runs in several branches at once gives each branch a stream of its own.
+	 */
+	public void setRandom(Random random) {
+		this.random = random;
+	}
+	
+	
+	/**
+	 * Returns the variance used when choosing the next edge; see getAdjustedWeight().
+	 */
+	public double getVariance() {
+		return variance;
+	}
+	
+	
+	/**
+	 * Sets the variance used when choosing the next edge: 0.0 always follows the heaviest edge, and larger
+	 * values let lighter edges win more often.
+	 */
+	public void setVariance(double variance) {
+		this.variance = variance;
+	}
+	
+	
+	/**
+	 * Returns the learned edge statistics that scale edge weights, or null if there are none.
+	 */
+	public EdgeStatistics getStatistics() {
+		return statistics;
+	}
+	
+	
+	/**
+	 * Sets the learned edge statistics that scale edge weights, or null to use the weights as they are.
+	 */
+	public void setStatistics(EdgeStatistics statistics) {
+		this.statistics = statistics;
+	}
+	
+	
 	/**
 	 * Returns the part of speech for a provided vertex.
 	 */
@@ -78,17 +181,128 @@ public class SentenceGraph {
 	}
 	
 	
+	/**
+	 * Returns the indices of every vertex that holds the given part of speech.
+	 */
+	public int[] nodesFor(PartOfSpeech pos) 
+	{
+		int count = 0;
+		for (int i = 0; i < data.length; i++)
+			if (data[i] == pos)
+				count++;
+		
+		int[] nodes = new int[count];
+		count = 0;
+		for (int i = 0; i < data.length; i++)
+			if (data[i] == pos)
+				nodes[count++] = i;
+		
+		return nodes;
+	}
+	
+	
+	/**
+	 * Returns, for each vertex, the fewest words that must be placed, starting with that vertex, before the 
+	 * traversal can land on a vertex with the given part of speech, following only the edges open now.  
+	 * Blank vertices take no word.
+	 * 
+	 * @return the number of words for each vertex, or -1 where no vertex with that part of speech can be reached
+	 */
+	public int[] wordsBefore(PartOfSpeech pos) 
+	{
+		int[] words = new int[data.length];
+		for (int i = 0; i < data.length; i++)
+			words[i] = (data[i] == pos) ? 0 : Integer.MAX_VALUE;
+		
+		// relax backwards along every open edge until settled
+		boolean changed = true;
+		while (changed) 
+		{
+			changed = false;
+			for (int i = 0; i < data.length; i++) 
+			{
+				int cost = (data[i] == PartOfSpeech.BLANK) ? 0 : 1;
+				for (int j = 0; j < data.length; j++)
+					if (matrix[i][j] > 0 && words[j] != Integer.MAX_VALUE && words[j] + cost < words[i]) {
+						words[i] = words[j] + cost;
+						changed = true;
+					}
+			}
+		}
+		
+		for (int i = 0; i < data.length; i++)
+			if (words[i] == Integer.MAX_VALUE)
+				words[i] = -1;
+		return words;
+	}
+	
+	
+	/**
+	 * Determine whether a word can follow the given vertex: whether a vertex that is not blank can be 
+	 * reached from it through the edges open now.
+	 */
+	public boolean leadsToWord(int from) 
+	{
+		int seen = 0;       // the vertices reached so far, as a bit set
+		int frontier = 1 << from;
+		
+		while (frontier != 0) 
+		{
+			int i = Integer.numberOfTrailingZeros(frontier);
+			frontier &= frontier - 1;
+			
+			for (int j = 0; j < data.length; j++)
+				if (matrix[i][j] > 0 && (seen & (1 << j)) == 0) 
+				{
+					if (data[j] != PartOfSpeech.BLANK)
+						return true;
+					seen |= 1 << j;
+					frontier |= 1 << j;
+				}
+		}
+		return false;
+	}
+	
+	
 	/**
 	 * Finds the connecting edge linking the current vertex to another that's weighted most heavily.
 	 */
-	public int nextEdge(int currentNode) 
+	public int nextEdge(int currentNode) {
+		return nextEdge(currentNode, 0, -1);
+	}
+	
+	
+	/**
+	 * Finds the most heavily weighted edge from the current vertex, ignoring edges to the excluded vertices.
+	 * 
+	 * @param excluded a bit set of vertex indices (bit i set to exclude vertex i), for example the
+	 *   vertices already tried and found to be dead ends
+	 * @param syllablesLeft the syllables left in the line after the current vertex, used to look up learned
+	 *   edge statistics; -1 if unknown
+	 * @return the index of the next vertex, or -1 if there is no edge to follow
+	 */
+	public int nextEdge(int currentNode, int excluded, int syllablesLeft) 
 	{
+		EdgeStatistics learned = (syllablesLeft < 0) ? null : statistics;
+		
+		HaikuEvents.Edge event = new HaikuEvents.Edge();
+		event.begin();
+		
 		double max = 0.0;  // The largest weight for any edge found so far
 		int target = -1;   // The index of the node with the largest edge weight
 		
 		for(int i = 0; i < data.length; i++) 
 		{
-			double total = getAdjustedWeight(currentNode, i, 0.2);
+			if ((excluded & (1 << i)) != 0)
+				continue;
+			
+			// perturbation can lift an absent edge above zero; never follow an edge the graph does not have
+			if (matrix[currentNode][i] <= 0.0)
+				continue;
+			
+			double total = getAdjustedWeight(currentNode, i, variance);
+			if (learned != null && total > 0.0)
+				total *= learned.factor(currentNode, i, syllablesLeft);
 			
 			if(total > max) 
 			{
@@ -97,12 +311,20 @@ public class SentenceGraph {
 			}
 		}
 		
-		iterator = target;
-		System.out.println("         index of heaviest edge: A[" + target + "]  (" + max + ")");
+		setIndex(target);
+		if (Debug.ENABLED)
+			System.out.println("         index of heaviest edge: A[" + target + "]  (" + max + ")");
 		
 		//-- adjust any edge weights that have changed from this move
 		adjustMatrix(currentNode, target);
 		
+		if (event.shouldCommit()) {
+			event.from = currentNode;
+			event.to = target;
+			event.pos = (target < 0) ? null : data[target].name();
+			event.weight = max;
+			event.commit();
+		}
 		return target;
 	}
 	
@@ -122,7 +344,7 @@ public class SentenceGraph {
 	 */
 	private double getAdjustedWeight(int current, int destination, double variance) 
 	{
-		double r = (new Random().nextInt(10) / 5.0) - 1.0;   // a random decimal  [0 < r < 10]
+		double r = (random.nextInt(10) / 5.0) - 1.0;   // a random decimal  [0 < r < 10]
 		double e = matrix[current][destination];			 // the weight of this edge (recorded in matrix)		
 		
 		double result = e + (r * variance);
@@ -140,9 +362,13 @@ public class SentenceGraph {
 	
 	/**
 	 * Determine whether the given vertex has any accessible, adjacent edges.
+	 * Returns false for -1, the index nextEdge() returns when there is no edge to follow.
 	 */
 	public boolean hasNextEdge(int index) 
 	{
+		if (index < 0)
+			return false;
+		
 		for(int i = 0; i < data.length; i++)
 			if(matrix[index][i] > 0) {
 				return true;
@@ -270,6 +496,7 @@ public class SentenceGraph {
 	public void reset() 
 	{
 		iterator = 0;
+		trailSize = 0;
 							// 0	1	 2	 3	   4   5    6     7    8    9    10  11    12
 						   //start adv* prep art  adj  n    v    adv* prep art  adj* n    end <--DESTINATION
 		matrix = new double[][]{ 																
@@ -292,27 +519,93 @@ public class SentenceGraph {
 
 	
 	
+	/************************************\
+	 *         UNDO TRAIL
+	 * 
+	\************************************/
+	
+	/**
+	 * Returns a mark for the graph's current state.  Passing it to undo() later restores this state,
+	 * however the graph has been traversed in between (as long as it has not been reset).
+	 */
+	public int mark() {
+		return trailSize;
+	}
+	
+	
+	/**
+	 * Restores the edge weights and cursor to the state they were in when the given mark was taken,
+	 * undoing only the changes made since then.
+	 */
+	public void undo(int mark) 
+	{
+		int width = data.length;
+		
+		while (trailSize > mark) 
+		{
+			trailSize--;
+			int cell = trailCells[trailSize];
+			
+			if (cell == CURSOR)
+				iterator = (int) trailValues[trailSize];
+			else
+				matrix[cell / width][cell % width] = trailValues[trailSize];
+		}
+	}
+	
+	
+	/**
+	 * Record the old value of a cell (or the cursor) on the trail, before it is changed.
+	 */
+	private void remember(int cell, double oldValue) 
+	{
+		if (trailSize == trailCells.length) 
+		{
+			trailCells = Arrays.copyOf(trailCells, trailSize * 2);
+			trailValues = Arrays.copyOf(trailValues, trailSize * 2);
+		}
+		trailCells[trailSize] = cell;
+		trailValues[trailSize] = oldValue;
+		trailSize++;
+	}
+	
+	
+	private void setIndex(int index) 
+	{
+		remember(CURSOR, iterator);
+		iterator = index;
+	}
+	
+	
+	private void write(int i, int j, double v) 
+	{
+		remember(i * data.length + j, matrix[i][j]);
+		matrix[i][j] = v;
+	}
+	
+	
+	
 	// ==== methods included as debugging tools === //
 	
 	/**
 	 * Multiply the weight of an edge by the provided amount.
 	 */
 	public void modifyEdge(int source, int target, double mod) {
-		matrix[source][target] = mod * matrix[source][target];
+		write(source, target, mod * matrix[source][target]);
 	}
 	
 	
 	public void setEdge(int i, int j, double v) {
-		matrix[i][j] = v;
+		write(i, j, v);
 	}
 	
 	
 	public void addEdge(int i, int j) {
-		matrix[i][j] = 1.0;
+		write(i, j, 1.0);
 	}
 	
 	public void removeEdge(int i, int j) {
-		matrix[i][j] = 0.0;
+		write(i, j, 0.0);
 	}
 	
 	
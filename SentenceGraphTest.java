@@ -0,0 +1,83 @@
+package haiku;
+
+/**
+ * Checks of the sentence graph's edge choice, which is random and so is checked over many trials.
+ *
+ * usage: java haiku.SentenceGraphTest
+ * Prints each failed check, and exits with status 1 if there were any.
+ */
+public class SentenceGraphTest
+{
+	//-- how many times each random choice is made
+	private static final int TRIALS = 10000;
+
+	private static int failures;
+
+
+	/**
+	 * A node whose real edges are all excluded has no edge to follow, however the weights are perturbed.
+	 */
+	private static void excludedEdgesLeaveNoEdge()
+	{
+		SentenceGraph graph = new SentenceGraph();
+		int node = 3;   // ARTICLE, whose only edges lead to ADJECTIVE (4) and NOUN (5)
+		int excluded = (1 << 4) | (1 << 5);
+
+		for (int trial = 0; trial < TRIALS; trial++)
+		{
+			int mark = graph.mark();
+			int next = graph.nextEdge(node, excluded, -1);
+			graph.undo(mark);
+
+			if (next != -1) {
+				fail("nextEdge(" + node + ") with every edge excluded returned " + next + ", not -1");
+				return;
+			}
+		}
+	}
+
+
+	/**
+	 * The edge chosen from any node is one the graph has: a cell of weight 0 is never followed.
+	 */
+	private static void onlyRealEdgesFollowed()
+	{
+		SentenceGraph graph = new SentenceGraph();
+		graph.setVariance(1.0);
+
+		for (int node = 0; node < graph.size(); node++)
+			for (int trial = 0; trial < TRIALS; trial++)
+			{
+				int mark = graph.mark();
+				int next = graph.nextEdge(node);
+				graph.undo(mark);
+
+				if (next >= 0 && graph.getEdge(node, next) <= 0.0) {
+					fail("nextEdge(" + node + ") followed the absent edge to " + next);
+					break;
+				}
+				if (next < 0 && graph.hasNextEdge(node)) {
+					fail("nextEdge(" + node + ") found no edge, but the node has some");
+					break;
+				}
+			}
+	}
+
+
+	private static void fail(String message)
+	{
+		System.out.println("FAILED: " + message);
+		failures++;
+	}
+
+
+	public static void main(String[] args)
+	{
+		excludedEdgesLeaveNoEdge();
+		onlyRealEdgesFollowed();
+
+		if (failures > 0)
+			System.exit(1);
+		System.out.println("all sentence graph checks passed");
+	}
+}
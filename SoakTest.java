@@ -0,0 +1,359 @@
+package haiku;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A sustained-load harness for the generation engine.
+ *
+ * Runs a fixed number of threads generating haiku back to back for a fixed duration, and samples the engine
+ * at a regular interval: throughput, latency percentiles, dead ends backtracked from per haiku, bytes
+ * allocated per haiku, GC count and time, and heap in use.  The samples and a summary are written as JSON,
+ * so that reports from different releases can be compared.
+ *
+ * Allocation is measured per thread through ThreadMXBean, and summed over every thread but the sampler's,
+ * so that speculative branches running on ForkJoinPool workers are counted along with the generating
+ * threads.
+ *
+ * usage: java haiku.SoakTest [options]
+ *   -dictionary file   the dictionary to generate from (default dictionary.txt)
+ *   -bigrams file      a bigram file to generate with
+ *   -threads n         the number of generating threads (default: one per processor)
+ *   -speculative n     search each line in n racing branches on a ForkJoinPool (default: off)
+ *   -learn file        learn edge statistics, starting from (and saving back to) the given file
+ *   -duration s        how long to run, in seconds (default 60)
+ *   -warmup s          how long to run before sampling starts, in seconds (default 10)
+ *   -interval s        the time between samples, in seconds (default 5)
+ *   -report file       where to write the JSON report (default soak-report.json)
+ */
+public class SoakTest
+{
+	private final HaikuGenerator generator;
+	private final int threads;
+
+	//-- recorded by the workers, read by the sampler
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private final LongAdder generated = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+
+	private volatile boolean running = true;
+	private final List<Thread> workers = new ArrayList<Thread>();
+
+	private final com.sun.management.ThreadMXBean threadBean;
+	private final List<GarbageCollectorMXBean> gcBeans = ManagementFactory.getGarbageCollectorMXBeans();
+	private final MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+
+	//-- the bytes each thread was last seen to have allocated, by thread id, so that threads which have
+	//   since ended (such as idle ForkJoinPool workers) still count.  Used only by the sampling thread.
+	private final Map<Long, Long> allocations = new HashMap<Long, Long>();
+
+
+	/**
+	 * Creates a harness that drives the given generator from the given number of threads.
+	 */
+	public SoakTest(HaikuGenerator generator, int threads)
+	{
+		this.generator = generator;
+		this.threads = Math.max(1, threads);
+
+		threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		if (threadBean.isThreadAllocatedMemorySupported())
+			threadBean.setThreadAllocatedMemoryEnabled(true);
+	}
+
+
+	// ============================ LOAD ================================ \\
+
+	/**
+	 * Starts the generating threads, and returns once they are all running.
+	 */
+	public void start() throws InterruptedException
+	{
+		final CountDownLatch started = new CountDownLatch(threads);
+
+		for (int i = 0; i < threads; i++)
+		{
+			Thread worker = new Thread("soak-" + i) {
+				public void run()
+				{
+					started.countDown();
+					while (running)
+					{
+						long begin = System.nanoTime();
+						try {
+							if (generator.generate() == null) {
+								failures.increment();
+								continue;
+							}
+							latency.record(System.nanoTime() - begin);
+							generated.increment();
+						}
+						catch (RuntimeException exception) {
+							failures.increment();
+						}
+					}
+				}
+			};
+			worker.setDaemon(true);
+			workers.add(worker);
+			worker.start();
+		}
+
+		started.await();
+	}
+
+
+	/**
+	 * Stops the generating threads, and waits for them to finish their current haiku.
+	 */
+	public void stop() throws InterruptedException
+	{
+		running = false;
+		for (Thread worker : workers)
+			worker.join();
+	}
+
+
+	// ============================ SAMPLING ================================ \\
+
+	/**
+	 * The state of the engine at one moment; the difference between two of these describes an interval.
+	 */
+	private class Sample
+	{
+		final long time = System.nanoTime();
+		final long[] histogram = latency.snapshot();
+		final long latencyNanos = latency.totalNanos();
+		final long haiku = generated.sum();
+		final long failed = failures.sum();
+		final long backtracks = generator.getMonitor().totalBacktracks();
+		final long allocated = allocatedBytes();
+		final long gcCount;
+		final long gcMillis;
+		final long heapUsed = memoryBean.getHeapMemoryUsage().getUsed();
+
+		Sample()
+		{
+			long count = 0;
+			long millis = 0;
+			for (GarbageCollectorMXBean gc : gcBeans) {
+				count += Math.max(gc.getCollectionCount(), 0);
+				millis += Math.max(gc.getCollectionTime(), 0);
+			}
+			gcCount = count;
+			gcMillis = millis;
+		}
+	}
+
+
+	/**
+	 * Returns the total number of bytes allocated so far by every thread but this one (the sampler),
+	 * or -1 if unsupported.
+	 */
+	private long allocatedBytes()
+	{
+		if (!threadBean.isThreadAllocatedMemoryEnabled())
+			return -1;
+
+		long[] ids = threadBean.getAllThreadIds();
+		long[] bytes = threadBean.getThreadAllocatedBytes(ids);
+		long self = Thread.currentThread().getId();
+
+		for (int i = 0; i < ids.length; i++)
+			if (ids[i] != self && bytes[i] >= 0)
+				allocations.put(ids[i], bytes[i]);
+
+		long total = 0;
+		for (long allocated : allocations.values())
+			total += allocated;
+		return total;
+	}
+
+
+	/**
+	 * Describes the interval between two samples as a JSON object.
+	 *
+	 * @param offset the time since sampling started, at the end of the interval
+	 */
+	private static String describe(Sample from, Sample to, double offset)
+	{
+		long[] histogram = LatencyHistogram.difference(to.histogram, from.histogram);
+		long haiku = to.haiku - from.haiku;
+		double seconds = (to.time - from.time) / 1e9;
+
+		StringBuilder json = new StringBuilder("{");
+		field(json, "offsetSeconds", offset);
+		field(json, "seconds", seconds);
+		field(json, "haiku", haiku);
+		field(json, "failures", to.failed - from.failed);
+		field(json, "haikuPerSecond", haiku / seconds);
+		field(json, "meanMs", (haiku == 0) ? 0.0 : (to.latencyNanos - from.latencyNanos) / 1e6 / haiku);
+		field(json, "p50Ms", LatencyHistogram.percentile(histogram, 50.0) / 1e6);
+		field(json, "p90Ms", LatencyHistogram.percentile(histogram, 90.0) / 1e6);
+		field(json, "p99Ms", LatencyHistogram.percentile(histogram, 99.0) / 1e6);
+		field(json, "p999Ms", LatencyHistogram.percentile(histogram, 99.9) / 1e6);
+		field(json, "maxMs", LatencyHistogram.percentile(histogram, 100.0) / 1e6);
+		field(json, "backtracksPerHaiku", (haiku == 0) ? 0.0 : (double) (to.backtracks - from.backtracks) / haiku);
+		field(json, "allocatedBytesPerHaiku",
+				(haiku == 0 || to.allocated < 0) ? -1.0 : (double) (to.allocated - from.allocated) / haiku);
+		field(json, "gcCount", to.gcCount - from.gcCount);
+		field(json, "gcMs", to.gcMillis - from.gcMillis);
+		field(json, "gcFraction", (to.gcMillis - from.gcMillis) / 1000.0 / seconds);
+		field(json, "heapUsedBytes", to.heapUsed);
+		json.setLength(json.length() - 2);
+
+		return json.append("}").toString();
+	}
+
+
+	private static void field(StringBuilder json, String name, long value) {
+		json.append('"').append(name).append("\": ").append(value).append(", ");
+	}
+
+
+	private static void field(StringBuilder json, String name, double value) {
+		json.append('"').append(name).append("\": ").append(String.format(Locale.ROOT, "%.4f", value)).append(", ");
+	}
+
+
+	/**
+	 * Runs the harness, sampling at the given interval, and writes the report.
+	 */
+	public void run(long warmupSeconds, long durationSeconds, long intervalSeconds, String reportFile)
+			throws InterruptedException, IOException
+	{
+		System.out.println("   warming up for " + warmupSeconds + " s on " + threads + " threads...");
+		start();
+		Thread.sleep(TimeUnit.SECONDS.toMillis(warmupSeconds));
+
+		Sample first = new Sample();
+		Sample last = first;
+		List<String> intervals = new ArrayList<String>();
+		List<Double> throughput = new ArrayList<Double>();
+
+		long end = first.time + TimeUnit.SECONDS.toNanos(durationSeconds);
+		while (System.nanoTime() < end)
+		{
+			long wait = Math.min(TimeUnit.SECONDS.toNanos(intervalSeconds), end - System.nanoTime());
+			TimeUnit.NANOSECONDS.sleep(Math.max(wait, 1));
+
+			Sample next = new Sample();
+			double offset = (next.time - first.time) / 1e9;
+			String interval = describe(last, next, offset);
+			intervals.add(interval);
+			throughput.add((next.haiku - last.haiku) / ((next.time - last.time) / 1e9));
+
+			System.out.println("   " + interval);
+			last = next;
+		}
+
+		stop();
+
+		// throughput drift: the last interval's rate relative to the first's
+		double drift = (throughput.size() < 2 || throughput.get(0) == 0.0) ? 1.0
+				: throughput.get(throughput.size() - 1) / throughput.get(0);
+
+		PrintWriter out = new PrintWriter(reportFile, "UTF-8");
+		try {
+			out.println("{");
+			out.println("  \"threads\": " + threads + ",");
+			out.println("  \"warmupSeconds\": " + warmupSeconds + ",");
+			out.println("  \"durationSeconds\": " + durationSeconds + ",");
+			out.println("  \"intervalSeconds\": " + intervalSeconds + ",");
+			out.println("  \"javaVersion\": \"" + System.getProperty("java.version") + "\",");
+			out.println("  \"dictionaryWords\": " + generator.getDictionary().size() + ",");
+			out.println("  \"learning\": " + (generator.getEdgeStatistics() != null) + ",");
+			out.println("  \"speculativeBranches\": "
+					+ ((generator.getSearchPool() == null) ? 0 : generator.getSearchPool().getParallelism()) + ",");
+			out.println("  \"throughputDrift\": " + String.format(Locale.ROOT, "%.4f", drift) + ",");
+			out.println("  \"summary\": " + describe(first, last, (last.time - first.time) / 1e9) + ",");
+			out.println("  \"intervals\": [");
+			for (int i = 0; i < intervals.size(); i++)
+				out.println("    " + intervals.get(i) + ((i < intervals.size() - 1) ? "," : ""));
+			out.println("  ]");
+			out.println("}");
+		}
+		finally {
+			out.close();
+		}
+
+		System.out.println("   summary: " + describe(first, last, (last.time - first.time) / 1e9));
+		System.out.println("   report written to " + reportFile);
+	}
+
+
+	// ============================ MAIN ================================ \\
+
+	public static void main(String[] args) throws Exception
+	{
+		String dictionaryFile = "dictionary.txt";
+		String bigramFile = null;
+		String reportFile = "soak-report.json";
+		int threads = Runtime.getRuntime().availableProcessors();
+		int branches = 0;
+		String learnFile = System.getProperty(EdgeStatistics.PROPERTY);
+		long duration = 60;
+		long warmup = 10;
+		long interval = 5;
+
+		for (int i = 0; i < args.length; i++)
+		{
+			if (args[i].equals("-dictionary"))
+				dictionaryFile = args[++i];
+			else if (args[i].equals("-bigrams"))
+				bigramFile = args[++i];
+			else if (args[i].equals("-threads"))
+				threads = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-speculative"))
+				branches = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-learn"))
+				learnFile = args[++i];
+			else if (args[i].equals("-duration"))
+				duration = Long.parseLong(args[++i]);
+			else if (args[i].equals("-warmup"))
+				warmup = Long.parseLong(args[++i]);
+			else if (args[i].equals("-interval"))
+				interval = Long.parseLong(args[++i]);
+			else if (args[i].equals("-report"))
+				reportFile = args[++i];
+			else {
+				System.err.println("usage: java haiku.SoakTest [-dictionary file] [-bigrams file] [-threads n] "
+						+ "[-speculative n] [-learn file] [-duration s] [-warmup s] [-interval s] [-report file]");
+				System.exit(2);
+			}
+		}
+
+		System.out.print("  Loading dictionary...");
+		Dictionary dictionary = new Dictionary(dictionaryFile);
+		System.out.println("done (" + dictionary.size() + " words)");
+
+		HaikuGenerator generator = new HaikuGenerator(dictionary);
+		if (bigramFile != null)
+			generator.setBigramModel(BigramModel.load(bigramFile, dictionary));
+		if (branches > 0)
+			generator.setSearchPool(new ForkJoinPool(branches));
+
+		if (learnFile != null)
+			generator.setEdgeStatistics(new File(learnFile).exists()
+					? EdgeStatistics.load(learnFile) : new EdgeStatistics());
+
+		generator.getMonitor().register("soak");
+		new SoakTest(generator, threads).run(warmup, duration, interval, reportFile);
+
+		if (learnFile != null)
+			generator.getEdgeStatistics().save(learnFile);
+	}
+}
@@ -0,0 +1,148 @@
+package haiku;
+
+import java.util.Random;
+
+/**
+ * An immutable group of dictionary words that share a part of speech and a syllable count,
+ * from which words can be drawn at random in constant time.
+ *
+ * If every word carries the same weight, words are drawn uniformly.  Otherwise, draws are
+ * weighted by frequency using an alias table (Vose's method), built once when the bucket is created.
+ */
+class WordBucket
+{
+	//-- the words in this bucket, and the word pool id of each one's entry
+	private final String[] words;
+	private final int[] ids;
+
+	//-- alias table: the chance of keeping column i, and the word used in its place otherwise.
+	//   Both are null when the bucket is uniform.
+	private final double[] prob;
+	private final int[] alias;
+
+	//-- the sum of the weights of every word in this bucket
+	private final double weight;
+
+
+	/**
+	 * Creates a bucket holding the given words.
+	 *
+	 * @param words the words in this bucket
+	 * @param ids the word pool id of each word's entry
+	 * @param weights the relative weight of each word (all positive), or null for uniform selection
+	 */
+	WordBucket(String[] words, int[] ids, double[] weights)
+	{
+		this.words = words;
+		this.ids = ids;
+
+		if (weights == null || isUniform(weights)) {
+			prob = null;
+			alias = null;
+			weight = (weights == null || words.length == 0) ? words.length : words.length * weights[0];
+			return;
+		}
+
+		int n = words.length;
+		prob = new double[n];
+		alias = new int[n];
+
+		double sum = 0.0;
+		for (int i = 0; i < n; i++)
+			sum += weights[i];
+		weight = sum;
+
+		// scale each weight so that the average column holds exactly 1.0
+		double[] scaled = new double[n];
+		int[] small = new int[n];
+		int[] large = new int[n];
+		int smallCount = 0;
+		int largeCount = 0;
+
+		for (int i = 0; i < n; i++) {
+			scaled[i] = weights[i] * n / sum;
+			if (scaled[i] < 1.0)
+				small[smallCount++] = i;
+			else
+				large[largeCount++] = i;
+		}
+
+		// top up each under-full column with the remainder of an over-full one
+		while (smallCount > 0 && largeCount > 0)
+		{
+			int less = small[--smallCount];
+			int more = large[--largeCount];
+
+			prob[less] = scaled[less];
+			alias[less] = more;
+
+			scaled[more] = (scaled[more] + scaled[less]) - 1.0;
+			if (scaled[more] < 1.0)
+				small[smallCount++] = more;
+			else
+				large[largeCount++] = more;
+		}
+
+		// whatever is left over is full, give or take rounding error
+		while (largeCount > 0)
+			prob[large[--largeCount]] = 1.0;
+		while (smallCount > 0)
+			prob[small[--smallCount]] = 1.0;
+	}
+
+
+	private static boolean isUniform(double[] weights)
+	{
+		for (int i = 1; i < weights.length; i++)
+			if (weights[i] != weights[0])
+				return false;
+
+		return true;
+	}
+
+
+	/**
+	 * Returns the number of words in this bucket.
+	 */
+	int size() {
+		return words.length;
+	}
+
+
+	/**
+	 * Returns the sum of the weights of every word in this bucket.
+	 */
+	double weight() {
+		return weight;
+	}
+
+
+	/**
+	 * Returns the word at the given position in this bucket.
+	 */
+	String get(int index) {
+		return words[index];
+	}
+
+
+	/**
+	 * Returns the word pool id of the entry at the given position in this bucket.
+	 */
+	int id(int index) {
+		return ids[index];
+	}
+
+
+	/**
+	 * Draws a word from this bucket, in proportion to its weight, and returns its position.
+	 */
+	int draw(Random random)
+	{
+		int column = random.nextInt(words.length);
+
+		if (prob == null || random.nextDouble() < prob[column])
+			return column;
+
+		return alias[column];
+	}
+}
@@ -0,0 +1,183 @@
+package haiku;
+
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * A dictionary's selection index: its words grouped by part of speech and syllable count, from which
+ * words are drawn at random, weighted by frequency.  Immutable once built.
+ *
+ * The index of a layered dictionary shares the buckets of its base dictionary's index, and builds buckets
+ * only for the entries the base's index lacks (the theme's own words), so each theme costs memory in
+ * proportion to its own words.  Entries in the shared buckets that the dictionary does not hold, such as
+ * a word the theme gives a different part of speech, keep their place there; a draw that lands on one is
+ * simply made again.
+ */
+class WordIndex
+{
+	//-- the weight of a word with no recorded frequency
+	private static final int DEFAULT_FREQUENCY = 1;
+
+	//-- the buckets drawn from, by [layer][part of speech][syllable count]; the base's layers come first
+	private final WordBucket[][][] layers;
+
+	//-- the ids of the entries in any layer, and of those that can actually be drawn
+	private final BitSet layered;
+	private final BitSet members;
+
+	//-- the total weight and number of the drawable entries, by [part of speech][syllable count]
+	private final double[][] weights;
+	private final int[][] counts;
+
+
+	/**
+	 * Builds the index of the given entries.
+	 *
+	 * @param pool the pool the entries are stored in
+	 * @param members the ids of the entries to index; must not be changed afterwards
+	 * @param shared the index whose buckets to reuse, or null to build every bucket
+	 */
+	WordIndex(WordPool pool, BitSet members, WordIndex shared)
+	{
+		this.members = members;
+		int posCount = PartOfSpeech.values().length;
+
+		// the entries that the shared buckets do not already hold
+		BitSet own = (BitSet) members.clone();
+		if (shared != null)
+			own.andNot(shared.layered);
+
+		// first pass: size each group (syllables were counted once, when each entry entered the pool)
+		int maxSyl = 0;
+		for (int id = members.nextSetBit(0); id >= 0; id = members.nextSetBit(id + 1))
+			maxSyl = Math.max(maxSyl, pool.syllables(id));
+
+		weights = new double[posCount][maxSyl + 1];
+		counts = new int[posCount][maxSyl + 1];
+		for (int id = members.nextSetBit(0); id >= 0; id = members.nextSetBit(id + 1))
+		{
+			int p = pool.pos(id).ordinal();
+			int syl = pool.syllables(id);
+			weights[p][syl] += weight(pool, id);
+			counts[p][syl]++;
+		}
+
+		// second pass: fill a bucket for each group of this index's own entries
+		int ownMax = 0;
+		for (int id = own.nextSetBit(0); id >= 0; id = own.nextSetBit(id + 1))
+			ownMax = Math.max(ownMax, pool.syllables(id));
+
+		int[][] sizes = new int[posCount][ownMax + 1];
+		for (int id = own.nextSetBit(0); id >= 0; id = own.nextSetBit(id + 1))
+			sizes[pool.pos(id).ordinal()][pool.syllables(id)]++;
+
+		String[][][] words = new String[posCount][ownMax + 1][];
+		int[][][] ids = new int[posCount][ownMax + 1][];
+		double[][][] ownWeights = new double[posCount][ownMax + 1][];
+		int[][] filled = new int[posCount][ownMax + 1];
+
+		for (int id = own.nextSetBit(0); id >= 0; id = own.nextSetBit(id + 1))
+		{
+			int p = pool.pos(id).ordinal();
+			int syl = pool.syllables(id);
+
+			if (words[p][syl] == null) {
+				words[p][syl] = new String[sizes[p][syl]];
+				ids[p][syl] = new int[sizes[p][syl]];
+				ownWeights[p][syl] = new double[sizes[p][syl]];
+			}
+
+			int slot = filled[p][syl]++;
+			words[p][syl][slot] = pool.word(id);
+			ids[p][syl][slot] = id;
+			ownWeights[p][syl][slot] = weight(pool, id);
+		}
+
+		WordBucket[][] buckets = new WordBucket[posCount][ownMax + 1];
+		for (int p = 0; p < posCount; p++)
+			for (int syl = 0; syl <= ownMax; syl++)
+				if (words[p][syl] != null)
+					buckets[p][syl] = new WordBucket(words[p][syl], ids[p][syl], ownWeights[p][syl]);
+
+		// stack this index's buckets on top of the shared ones
+		int below = (shared == null) ? 0 : shared.layers.length;
+		layers = new WordBucket[below + 1][][];
+		for (int i = 0; i < below; i++)
+			layers[i] = shared.layers[i];
+		layers[below] = buckets;
+
+		layered = (BitSet) own.clone();
+		if (shared != null)
+			layered.or(shared.layered);
+	}
+
+
+	private static double weight(WordPool pool, int id)
+	{
+		int freq = pool.frequency(id);
+		return (freq == 0) ? DEFAULT_FREQUENCY : freq;
+	}
+
+
+	/**
+	 * Returns the largest syllable count of any word in this index.
+	 */
+	int maxSyllables() {
+		return weights[0].length - 1;
+	}
+
+
+	/**
+	 * Returns the total weight of the words with the given part of speech and syllable count.
+	 */
+	double weight(int pos, int syl) {
+		return (syl < 0 || syl >= weights[pos].length) ? 0.0 : weights[pos][syl];
+	}
+
+
+	/**
+	 * Returns the number of words with the given part of speech and syllable count.
+	 */
+	int count(int pos, int syl) {
+		return (syl < 0 || syl >= counts[pos].length) ? 0 : counts[pos][syl];
+	}
+
+
+	/**
+	 * Draws a word with the given part of speech and syllable count, in proportion to its weight.
+	 *
+	 * @return the word, or null if there are none
+	 */
+	String draw(int pos, int syl, Random random)
+	{
+		if (weight(pos, syl) <= 0.0)
+			return null;
+
+		double total = 0.0;
+		for (WordBucket[][] layer : layers)
+			if (syl < layer[pos].length && layer[pos][syl] != null)
+				total += layer[pos][syl].weight();
+
+		while (true)
+		{
+			// pick a layer in proportion to the weight of its bucket, then a word within it
+			double target = random.nextDouble() * total;
+			WordBucket bucket = null;
+
+			for (WordBucket[][] layer : layers)
+			{
+				if (syl >= layer[pos].length || layer[pos][syl] == null)
+					continue;
+
+				bucket = layer[pos][syl];
+				target -= bucket.weight();
+				if (target < 0.0)
+					break;
+			}
+
+			int i = bucket.draw(random);
+			if (members.get(bucket.id(i)))
+				return bucket.get(i);
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package haiku;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Deduplicated storage for dictionary entries, which several dictionaries can share.
+ *
+ * An entry is a word together with its part of speech and frequency.  Each distinct entry is stored once,
+ * under an integer id, along with its syllable count.  A Dictionary is then just the set of ids it contains,
+ * so themed dictionaries layered over one pool cost memory in proportion to the number of unique entries,
+ * not the number of themes.
+ *
+ * Entries never change once added.  If two dictionaries give a word different parts of speech or
+ * frequencies, the word has two entries, and each dictionary holds its own.
+ */
+public class WordPool
+{
+	//-- the ids of each word's entries, keyed by word.  Concurrent, so that words can be looked up while
+	//   others are added; an array is replaced, never changed, when an entry is added for its word.
+	private final Map<String, int[]> ids = new ConcurrentHashMap<String, int[]>();
+
+	//-- a word with no entries
+	private static final int[] NONE = new int[0];
+
+	//-- entry data, by id.  Only grown while holding this pool's lock.
+	private String[] words = new String[1024];
+	private byte[] tags = new byte[1024];
+	private byte[] syllables = new byte[1024];
+	private int[] frequency = new int[1024];
+	private int size;
+
+	private static final PartOfSpeech[] POS_VALUES = PartOfSpeech.values();
+
+
+	/**
+	 * Adds an entry to this pool, unless an identical one is already here.
+	 *
+	 * @param freq the word's frequency, or 0 for none
+	 * @return the entry's id
+	 */
+	public synchronized int put(String word, PartOfSpeech pos, int freq)
+	{
+		freq = Math.max(freq, 0);
+
+		int[] existing = ids(word);
+		for (int id : existing)
+			if (tags[id] == pos.ordinal() && frequency[id] == freq)
+				return id;
+
+		int id = size;
+		if (id == words.length) {
+			words = Arrays.copyOf(words, id * 2);
+			tags = Arrays.copyOf(tags, id * 2);
+			syllables = Arrays.copyOf(syllables, id * 2);
+			frequency = Arrays.copyOf(frequency, id * 2);
+		}
+		words[id] = word;
+		tags[id] = (byte) pos.ordinal();
+		syllables[id] = (byte) Math.max(0, Math.min(Dictionary.sylCount(word), Byte.MAX_VALUE));
+		frequency[id] = freq;
+		size++;
+
+		int[] entries = Arrays.copyOf(existing, existing.length + 1);
+		entries[existing.length] = id;
+		ids.put(word, entries);
+		return id;
+	}
+
+
+	/**
+	 * Returns the ids of every entry for the given word, or an empty array if it is not in this pool.
+	 * The array must not be changed.
+	 */
+	public int[] ids(String word)
+	{
+		if (word == null)
+			return NONE;
+
+		int[] entries = ids.get(word);
+		return (entries == null) ? NONE : entries;
+	}
+
+
+	/**
+	 * Returns the number of distinct entries in this pool.
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+
+	/**
+	 * Returns the word of the entry with the given id.
+	 */
+	public synchronized String word(int id) {
+		return words[id];
+	}
+
+
+	/**
+	 * Returns the part of speech of the entry with the given id.
+	 */
+	public synchronized PartOfSpeech pos(int id) {
+		return POS_VALUES[tags[id]];
+	}
+
+
+	/**
+	 * Returns the syllable count of the entry with the given id.
+	 */
+	public synchronized int syllables(int id) {
+		return syllables[id];
+	}
+
+
+	/**
+	 * Returns the frequency of the entry with the given id, or 0 if it was given none.
+	 */
+	public synchronized int frequency(int id) {
+		return frequency[id];
+	}
+}